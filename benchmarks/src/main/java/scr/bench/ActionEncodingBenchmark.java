@@ -0,0 +1,64 @@
+package scr.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scr.Action;
+import scr.ActionEncoder;
+
+/**
+ * Codifica del comando in uscita: Action.toString().getBytes() come faceva
+ * SocketHandler.send(String) contro ActionEncoder su un buffer riutilizzato.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionEncodingBenchmark {
+
+    private Action action;
+    private ByteBuffer out;
+    private int tick;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        action = new Action();
+        out = ByteBuffer.allocateDirect(256);
+    }
+
+    // Valori diversi a ogni chiamata, come arrivano dal controller
+    private Action nextAction() {
+        int t = tick++;
+        action.accelerate = (t % 100) / 100.0;
+        action.brake = (t % 7) / 13.0;
+        action.clutch = (t % 11) / 23.0;
+        action.steering = Math.sin(t * 0.01);
+        action.gear = 1 + t % 6;
+        return action;
+    }
+
+    @Benchmark
+    public byte[] actionToString() {
+        return nextAction().toString().getBytes();
+    }
+
+    @Benchmark
+    public ByteBuffer actionEncoder() {
+        ActionEncoder.encode(nextAction(), out);
+        return out;
+    }
+}
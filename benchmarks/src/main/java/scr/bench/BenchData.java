@@ -0,0 +1,147 @@
+package scr.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import scr.KNNClassifier;
+import scr.Sample;
+
+/**
+ * Dati reali per i benchmark: i dataset CSV del repository e messaggi SCR.
+ *
+ * I file vengono cercati nella cartella indicata da -Dscr.dataDir, poi nella
+ * cartella corrente e nelle cartelle superiori (così i benchmark partono sia
+ * dalla radice del progetto sia da benchmarks/).
+ */
+final class BenchData {
+
+    private BenchData() {
+    }
+
+    static Path resolve(String name) throws IOException {
+        String dataDir = System.getProperty("scr.dataDir");
+        if (dataDir != null) {
+            return Paths.get(dataDir, name);
+        }
+        Path dir = Paths.get("").toAbsolutePath();
+        while (dir != null) {
+            Path candidate = dir.resolve(name);
+            if (Files.exists(candidate)) {
+                return candidate;
+            }
+            dir = dir.getParent();
+        }
+        throw new IOException("File non trovato: " + name + " (usa -Dscr.dataDir=...)");
+    }
+
+    /**
+     * Legge un dataset prendendo le colonne delle feature per nome
+     * (KNNClassifier.featureNames) e le ultime 4 colonne come target, così
+     * funziona anche con dataset150.csv che ha tutti i sensori.
+     */
+    static List<Sample> loadSamples(String name) throws IOException {
+        List<String> lines = Files.readAllLines(resolve(name));
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+        int[] columns = new int[KNNClassifier.featureNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = header.indexOf(KNNClassifier.featureNames[i]);
+            if (columns[i] < 0) {
+                throw new IOException(name + ": manca la colonna " + KNNClassifier.featureNames[i]);
+            }
+        }
+        int n = header.size();
+        List<Sample> samples = new ArrayList<>(lines.size() - 1);
+        for (int r = 1; r < lines.size(); r++) {
+            String[] parts = lines.get(r).split(",");
+            double[] features = new double[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                features[i] = Double.parseDouble(parts[columns[i]].trim());
+            }
+            double[] targets = new double[4];
+            for (int i = 0; i < 4; i++) {
+                targets[i] = Double.parseDouble(parts[n - 4 + i].trim());
+            }
+            samples.add(new Sample(features, targets));
+        }
+        return samples;
+    }
+
+    // Copia profonda, perché KNNClassifier normalizza i campioni sul posto
+    static List<Sample> copy(List<Sample> samples) {
+        List<Sample> out = new ArrayList<>(samples.size());
+        for (Sample s : samples) {
+            out.add(new Sample(s.features.clone(), s.targets.clone()));
+        }
+        return out;
+    }
+
+    /**
+     * Messaggi SCR su cui misurare il parsing. Con -Dscr.messages=file si
+     * usano messaggi catturati (uno per riga); altrimenti vengono ricostruiti,
+     * nel formato del server, dalle righe di dataset150.csv, che contiene
+     * tutti i 19 sensori di pista.
+     */
+    static List<String> scrMessages(int count) throws IOException {
+        String captured = System.getProperty("scr.messages");
+        if (captured != null) {
+            List<String> messages = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(captured))) {
+                if (line.startsWith("(")) {
+                    messages.add(line);
+                }
+            }
+            return messages;
+        }
+
+        List<String> lines = Files.readAllLines(resolve("dataset150.csv"));
+        List<String> header = Arrays.asList(lines.get(0).split(","));
+        int track0 = header.indexOf("Track0");
+        int trackPos = header.indexOf("TrackPosition");
+        int angle = header.indexOf("AngleToTrackAxis");
+        int rpm = header.indexOf("RPM");
+        int speed = header.indexOf("Speed");
+        int speedY = header.indexOf("SpeedY");
+        int distFromStart = header.indexOf("DistanceFromStartLine");
+        int distRaced = header.indexOf("DistanceRaced");
+        int damage = header.indexOf("Damage");
+        int gear = header.indexOf("Gear");
+
+        List<String> messages = new ArrayList<>(count);
+        int step = Math.max(1, (lines.size() - 1) / count);
+        for (int r = 1; r < lines.size() && messages.size() < count; r += step) {
+            String[] p = lines.get(r).split(",");
+            StringBuilder sb = new StringBuilder(1024);
+            sb.append("(angle ").append(p[angle]).append(')');
+            sb.append("(curLapTime ").append(String.format(Locale.US, "%.3f", r * 0.02)).append(')');
+            sb.append("(damage ").append(p[damage]).append(')');
+            sb.append("(distFromStart ").append(p[distFromStart]).append(')');
+            sb.append("(distRaced ").append(p[distRaced]).append(')');
+            sb.append("(fuel 94)");
+            sb.append("(gear ").append(p[gear]).append(')');
+            sb.append("(lastLapTime 0)");
+            sb.append("(opponents");
+            for (int i = 0; i < 36; i++) sb.append(" 200");
+            sb.append(')');
+            sb.append("(racePos 1)");
+            sb.append("(rpm ").append(p[rpm]).append(')');
+            sb.append("(speedX ").append(p[speed]).append(')');
+            sb.append("(speedY ").append(p[speedY]).append(')');
+            sb.append("(speedZ -0.000212)");
+            sb.append("(track");
+            for (int i = 0; i < 19; i++) sb.append(' ').append(p[track0 + i]);
+            sb.append(')');
+            sb.append("(trackPos ").append(p[trackPos]).append(')');
+            sb.append("(wheelSpinVel 0 0 0 0)");
+            sb.append("(z 0.345255)");
+            sb.append("(focus -1 -1 -1 -1 -1)");
+            messages.add(sb.toString());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,27 @@
+package scr.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Avvia i benchmark con il profiler GC sempre attivo, così insieme a
+ * throughput e tempo medio viene riportata l'allocazione per operazione
+ * (gc.alloc.rate.norm). Accetta le normali opzioni di JMH, ad esempio:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar PredictBenchmark -p k=5
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
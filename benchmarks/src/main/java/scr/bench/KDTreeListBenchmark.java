@@ -0,0 +1,67 @@
+package scr.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scr.KDTree;
+import scr.KNNClassifier;
+import scr.Sample;
+
+/**
+ * Percorso di compatibilità di KDTree che restituisce List<Sample> (alloca),
+ * da confrontare con NeighborSearchBenchmark.kNearestNeighbors con engine
+ * KD_TREE. Sta in una classe a parte perché VectorScanSearch non ha questo
+ * metodo.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KDTreeListBenchmark {
+
+    @Param({ "dataset_50.csv", "dataset150.csv", "dataset_50_destra_sinistra_centro.csv" })
+    public String dataset;
+
+    @Param({ "5", "20" })
+    public int k;
+
+    private KDTree tree;
+    private double[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<Sample> samples = BenchData.loadSamples(dataset);
+        // normalizza i campioni sul posto come fa il driver
+        new KNNClassifier(samples, k).close();
+        tree = new KDTree(samples);
+
+        queries = new double[1024][];
+        int step = Math.max(1, samples.size() / queries.length);
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = samples.get((i * step) % samples.size()).features;
+        }
+    }
+
+    @Benchmark
+    public List<Sample> kNearestNeighborsList() {
+        double[] query = queries[next++ & (queries.length - 1)];
+        return tree.kNearestNeighbors(new Sample(query), k);
+    }
+}
@@ -0,0 +1,78 @@
+package scr.bench;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import scr.MessageBasedSensorModel;
+import scr.PrimitiveSensorModel;
+import scr.SensorModel;
+
+/**
+ * Parsing di un messaggio SCR e lettura dei sensori usati da SimpleDriver:
+ * MessageParser (tramite MessageBasedSensorModel) contro il parser sui byte
+ * di PrimitiveSensorModel.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageParsingBenchmark {
+
+    private String[] messages;
+    private ByteBuffer[] buffers;
+    private PrimitiveSensorModel model;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<String> list = BenchData.scrMessages(256);
+        int n = Integer.highestOneBit(list.size());
+        messages = new String[n];
+        buffers = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            messages[i] = list.get(i);
+            byte[] bytes = messages[i].getBytes(StandardCharsets.US_ASCII);
+            buffers[i] = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        }
+        model = new PrimitiveSensorModel();
+    }
+
+    @Benchmark
+    public void messageParser(Blackhole bh) {
+        readSensors(new MessageBasedSensorModel(messages[next++ & (messages.length - 1)]), bh);
+    }
+
+    @Benchmark
+    public void primitiveSensorModel(Blackhole bh) {
+        model.refill(buffers[next++ & (buffers.length - 1)]);
+        readSensors(model, bh);
+    }
+
+    private static void readSensors(SensorModel s, Blackhole bh) {
+        bh.consume(s.getTrackEdgeSensors());
+        bh.consume(s.getTrackPosition());
+        bh.consume(s.getAngleToTrackAxis());
+        bh.consume(s.getSpeed());
+        bh.consume(s.getLateralSpeed());
+        bh.consume(s.getRPM());
+        bh.consume(s.getGear());
+    }
+}
@@ -0,0 +1,81 @@
+package scr.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scr.KDTree;
+import scr.KNNClassifier;
+import scr.NeighborHeap;
+import scr.NeighborSearch;
+import scr.Sample;
+import scr.VectorScanSearch;
+
+/**
+ * Ricerca dei k vicini (KDTree.kNearestNeighbors e VectorScanSearch) sui
+ * dataset normalizzati, con query prese a rotazione dal dataset stesso.
+ * Il percorso che restituisce List<Sample> esiste solo per KDTree ed è
+ * misurato a parte in KDTreeListBenchmark.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class NeighborSearchBenchmark {
+
+    @Param({ "dataset_50.csv", "dataset150.csv", "dataset_50_destra_sinistra_centro.csv" })
+    public String dataset;
+
+    @Param({ "KD_TREE", "VECTOR_SCAN" })
+    public KNNClassifier.SearchEngine engine;
+
+    @Param({ "5", "20" })
+    public int k;
+
+    private NeighborSearch search;
+    private double[][] queries;
+    private NeighborHeap heap;
+    private int[] ids;
+    private double[] dists;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<Sample> samples = BenchData.loadSamples(dataset);
+        // normalizza i campioni sul posto come fa il driver
+        new KNNClassifier(samples, k).close();
+        search = engine == KNNClassifier.SearchEngine.KD_TREE
+                ? new KDTree(samples)
+                : new VectorScanSearch(samples);
+
+        queries = new double[1024][];
+        int step = Math.max(1, samples.size() / queries.length);
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = samples.get((i * step) % samples.size()).features;
+        }
+        heap = new NeighborHeap(k);
+        ids = new int[k];
+        dists = new double[k];
+    }
+
+    @Benchmark
+    public int kNearestNeighbors() {
+        double[] query = queries[next++ & (queries.length - 1)];
+        return search.kNearestNeighbors(query, k, heap, ids, dists);
+    }
+}
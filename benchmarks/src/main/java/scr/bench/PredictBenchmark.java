@@ -0,0 +1,71 @@
+package scr.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scr.KNNClassifier;
+import scr.PredictionLogger;
+import scr.Sample;
+
+/**
+ * KNNClassifier.predict come lo chiama SimpleDriver a ogni tick: feature
+ * grezze, normalizzazione, ricerca, media dei target e denormalizzazione.
+ * Il log delle predizioni è disattivato per misurare solo il modello.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class PredictBenchmark {
+
+    @Param({ "dataset_50.csv", "dataset150.csv", "dataset_50_destra_sinistra_centro.csv" })
+    public String dataset;
+
+    @Param({ "5", "20" })
+    public int k;
+
+    private KNNClassifier classifier;
+    private Sample[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<Sample> samples = BenchData.loadSamples(dataset);
+        List<Sample> raw = BenchData.copy(samples);
+        classifier = new KNNClassifier(samples, k);
+        classifier.setLogLevel(PredictionLogger.Level.OFF);
+
+        queries = new Sample[1024];
+        int step = Math.max(1, raw.size() / queries.length);
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = raw.get((i * step) % raw.size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        classifier.close();
+    }
+
+    @Benchmark
+    public double[] predict() {
+        return classifier.predict(queries[next++ & (queries.length - 1)]);
+    }
+}
@@ -1,2 +1,2 @@
-javac -d ../classes scr/*.java
+javac --add-modules jdk.incubator.vector -d ../classes scr/*.java
 
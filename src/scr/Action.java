@@ -22,6 +22,17 @@ public class Action {
 				+ ")";
 	}
 
+	// Riporta l'azione ai valori iniziali, per riusare la stessa istanza a ogni tick
+	public void reset() {
+		accelerate = 0;
+		brake = 0;
+		clutch = 0;
+		gear = 0;
+		steering = 0;
+		restartRace = false;
+		focus = 360;
+	}
+
 	public void limitValues() {
 		accelerate = Math.max(0, Math.min(1, accelerate));
 		brake = Math.max(0, Math.min(1, brake));
@@ -0,0 +1,102 @@
+package scr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codifica un'Action nel messaggio SCR
+ * "(accel ..) (brake ..) (clutch ..) (gear ..) (steer ..) (meta ..) (focus ..)"
+ * scrivendo direttamente i byte ASCII in un ByteBuffer riutilizzato, senza
+ * concatenare stringhe.
+ *
+ * I valori reali sono scritti in virgola fissa con DECIMALS cifre decimali
+ * (più che sufficienti: il server li legge come float).
+ */
+public final class ActionEncoder {
+
+    public static final int DECIMALS = 6;
+    private static final long SCALE = 1_000_000L; // 10^DECIMALS
+
+    private static final byte[] ACCEL = ascii("(accel ");
+    private static final byte[] BRAKE = ascii(") (brake ");
+    private static final byte[] CLUTCH = ascii(") (clutch ");
+    private static final byte[] GEAR = ascii(") (gear ");
+    private static final byte[] STEER = ascii(") (steer ");
+    private static final byte[] META = ascii(") (meta ");
+    private static final byte[] FOCUS = ascii(") (focus ");
+
+    private ActionEncoder() {
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    /**
+     * Limita i valori dell'azione (come Action.toString) e scrive il messaggio
+     * in out, che viene svuotato e poi preparato per la lettura (flip).
+     */
+    public static void encode(Action action, ByteBuffer out) {
+        action.limitValues();
+        out.clear();
+        out.put(ACCEL);
+        putFixed(out, action.accelerate);
+        out.put(BRAKE);
+        putFixed(out, action.brake);
+        out.put(CLUTCH);
+        putFixed(out, action.clutch);
+        out.put(GEAR);
+        putInt(out, action.gear);
+        out.put(STEER);
+        putFixed(out, action.steering);
+        out.put(META);
+        putInt(out, action.restartRace ? 1 : 0);
+        out.put(FOCUS);
+        putInt(out, action.focus);
+        out.put((byte) ')');
+        out.flip();
+    }
+
+    // Scrive value con DECIMALS cifre decimali, arrotondato; NaN e infiniti
+    // diventano 0 perché il server non saprebbe interpretarli
+    static void putFixed(ByteBuffer out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            value = 0;
+        }
+        long scaled = Math.round(Math.abs(value) * SCALE);
+        if (value < 0 && scaled != 0) {
+            out.put((byte) '-');
+        }
+        putLong(out, scaled / SCALE);
+        out.put((byte) '.');
+        long frac = scaled % SCALE;
+        for (long div = SCALE / 10; div > 0; div /= 10) {
+            out.put((byte) ('0' + (frac / div) % 10));
+        }
+    }
+
+    static void putInt(ByteBuffer out, int value) {
+        putLong(out, value);
+    }
+
+    private static void putLong(ByteBuffer out, long value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        if (value == 0) {
+            out.put((byte) '0');
+            return;
+        }
+        long div = 1;
+        while (div <= value / 10) {
+            div *= 10;
+        }
+        for (; div > 0; div /= 10) {
+            out.put((byte) ('0' + (value / div) % 10));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package scr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversione in double di numeri scritti in ASCII direttamente dai byte di
+ * un ByteBuffer, senza creare stringhe. Usata per i messaggi dei sensori
+ * (SensorMessageParser) e per i CSV dei dataset (DatasetLoader).
+ */
+public final class AsciiDouble {
+
+    // Potenze di 10 rappresentabili esattamente in double
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private AsciiDouble() {
+    }
+
+    /**
+     * Converte in double il testo in [start, end). Nel caso comune (al più 15
+     * cifre significative ed esponente piccolo) il risultato si ottiene con
+     * una sola moltiplicazione o divisione esatta ed è arrotondato
+     * correttamente; negli altri casi si ricade su Double.parseDouble, che
+     * lancia NumberFormatException se il testo non è un numero.
+     */
+    public static double parse(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        byte c = i < end ? buf.get(i) : 0;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean any = false;
+        while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                scale++;
+            }
+            any = true;
+            i++;
+        }
+        if (i < end && buf.get(i) == '.') {
+            i++;
+            while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    scale--;
+                }
+                any = true;
+                i++;
+            }
+        }
+        if (any && i < end && ((c = buf.get(i)) == 'e' || c == 'E')) {
+            i++;
+            boolean expNegative = false;
+            if (i < end && ((c = buf.get(i)) == '-' || c == '+')) {
+                expNegative = c == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean expAny = false;
+            while (i < end && (c = buf.get(i)) >= '0' && c <= '9') {
+                if (exp < 10000) exp = exp * 10 + (c - '0');
+                expAny = true;
+                i++;
+            }
+            if (!expAny) any = false;
+            scale += expNegative ? -exp : exp;
+        }
+
+        if (any && i == end && digits <= 15 && scale >= -22 && scale <= 22) {
+            double value = mantissa;
+            value = scale < 0 ? value / POW10[-scale] : value * POW10[scale];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(toString(buf, start, end));
+    }
+
+    static String toString(ByteBuffer buf, int start, int end) {
+        byte[] raw = new byte[end - start];
+        for (int j = 0; j < raw.length; j++) {
+            raw[j] = buf.get(start + j);
+        }
+        return new String(raw, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,99 @@
+package scr;
+
+import java.util.Arrays;
+
+/**
+ * Min-heap di sottoalberi ancora da visitare, ordinati per distanza minima
+ * (al quadrato) dalla query: è la coda della ricerca best-bin-first di
+ * KDTree. Un sottoalbero è l'intervallo [lo, hi) dell'albero implicito.
+ *
+ * Gli array crescono solo se servono più rami del previsto e poi vengono
+ * riutilizzati, quindi a regime la ricerca non alloca.
+ *
+ * Non è thread-safe: ogni thread usa la propria coda.
+ */
+public class BranchQueue {
+
+    private int[] los;
+    private int[] his;
+    private double[] bounds;
+    private int size;
+
+    public BranchQueue(int capacity) {
+        capacity = Math.max(capacity, 16);
+        los = new int[capacity];
+        his = new int[capacity];
+        bounds = new double[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void push(int lo, int hi, double bound) {
+        if (size == los.length) {
+            int capacity = size * 2;
+            los = Arrays.copyOf(los, capacity);
+            his = Arrays.copyOf(his, capacity);
+            bounds = Arrays.copyOf(bounds, capacity);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (bounds[parent] <= bound) {
+                break;
+            }
+            los[i] = los[parent];
+            his[i] = his[parent];
+            bounds[i] = bounds[parent];
+            i = parent;
+        }
+        los[i] = lo;
+        his[i] = hi;
+        bounds[i] = bound;
+    }
+
+    // Distanza minima del ramo in testa (il più promettente)
+    public double minBound() {
+        return bounds[0];
+    }
+
+    public int minLo() {
+        return los[0];
+    }
+
+    public int minHi() {
+        return his[0];
+    }
+
+    // Toglie il ramo in testa
+    public void pop() {
+        int last = --size;
+        int lo = los[last];
+        int hi = his[last];
+        double bound = bounds[last];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && bounds[right] < bounds[child]) {
+                child = right;
+            }
+            if (bound <= bounds[child]) {
+                break;
+            }
+            los[i] = los[child];
+            his[i] = his[child];
+            bounds[i] = bounds[child];
+            i = child;
+        }
+        los[i] = lo;
+        his[i] = hi;
+        bounds[i] = bound;
+    }
+}
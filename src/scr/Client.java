@@ -3,6 +3,9 @@
  */
 package scr;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.StringTokenizer;
 import scr.Controller.Stage;
 
@@ -13,7 +16,10 @@ import scr.Controller.Stage;
 public class Client {
 
 	private static int UDP_TIMEOUT = 10000;
-	private static int port;
+	private static final byte[] IDENTIFIED = "***identified***".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SHUTDOWN = "***shutdown***".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] RESTART = "***restart***".getBytes(StandardCharsets.US_ASCII);
+	static int port;
 	private static String host;
 	private static String clientId;
 	private static boolean verbose;
@@ -21,6 +27,11 @@ public class Client {
 	private static int maxSteps;
 	private static Stage stage;
 	private static String trackName;
+	private static boolean nioTransport;
+	private static boolean metricsEnabled;
+	static String metricsFile;
+	private static int metricsInterval;
+	static String recordFile;
 
 	/**
 	 * @param args viene utilizzato per definire tutte le opzioni del client.
@@ -32,16 +43,43 @@ public class Client {
 	 *             - maxSteps:N viene utilizzato per impostare il numero massimo di passaggi per ogni episodio (il valore predefinito è 0, che significa numero illimitato di passaggi).
 	 *             - stage:N viene utilizzato per impostare lo stadio corrente: 0 è WARMUP, 1 è QUALIFYING, 2 è RACE, altri valori significano UNKNOWN (il valore predefinito è UNKNOWN).
 	 *             - trackName:nome viene utilizzato per impostare il nome della pista attuale.
+	 *             - transport:nio|socket viene utilizzato per scegliere il trasporto UDP: DatagramChannel con buffer riutilizzati o DatagramSocket classico (il valore predefinito è nio).
+	 *             - metrics:on viene utilizzato per misurare la latenza di ogni fase del tick (parsing, controllo, k-NN, codifica, invio) (il valore predefinito è spento).
+	 *             - metricsFile:nome viene utilizzato per impostare il file a cui aggiungere i riepiloghi delle metriche (il valore predefinito è metriche_tick.txt).
+	 *             - metricsInterval:N viene utilizzato per scrivere un riepilogo ogni N secondi, 0 solo alla fine (il valore predefinito è 10).
+	 *             - record:nome viene utilizzato per registrare i messaggi ricevuti dal server in un log da rigiocare con ReplayRunner (il valore predefinito è nessuna registrazione).
 	 */
 
 	public static void main(String[] args) {
 		parseParameters(args);
-		SocketHandler mySocket = new SocketHandler(host, port, verbose);
-		String inMsg;
-
 		Controller driver = load(args[0]);
+		drive(driver, port, metricsFile, recordFile);
+		System.out.println("Client shutdown.");
+		System.out.println("Bye, bye!");
+
+	}
+
+	/*
+	 * Ciclo di guida di un'auto collegata alla porta indicata, con le opzioni
+	 * lette da parseParameters. MultiCarClient lo esegue una volta per auto, in
+	 * parallelo; tutto lo stato del ciclo è locale.
+	 */
+	static void drive(Controller driver, int port, String metricsFile, String recordFile) {
+		SocketHandler mySocket = new SocketHandler(host, port, verbose, nioTransport);
+		ByteBuffer inMsg;
+
 		driver.setStage(stage);
 		driver.setTrackName(trackName);
+		TickMetrics metrics = metricsEnabled ? new TickMetrics(metricsFile, metricsInterval) : null;
+		driver.setMetrics(metrics);
+		MessageRecorder recorder = null;
+		if (recordFile != null) {
+			try {
+				recorder = new MessageRecorder(recordFile);
+			} catch (IOException e) {
+				System.out.println("Impossibile registrare su " + recordFile + ": " + e.getMessage());
+			}
+		}
 
 		/* Build init string */
 		float[] angles = driver.initAngles();
@@ -51,6 +89,13 @@ public class Client {
 		}
 		initStr = initStr + ")";
 
+		/*
+		 * Modello dei sensori riutilizzato a ogni tick
+		 */
+		PrimitiveSensorModel sensors = new PrimitiveSensorModel();
+		Action restartAction = new Action();
+		ByteBuffer outMsg = ByteBuffer.allocateDirect(256);
+
 		long curEpisode = 0;
 		boolean shutdownOccurred = false;
 		do {
@@ -61,8 +106,8 @@ public class Client {
 
 			do {
 				mySocket.send(initStr);
-				inMsg = mySocket.receive(UDP_TIMEOUT);
-			} while (inMsg == null || inMsg.indexOf("***identified***") < 0);
+				inMsg = mySocket.receiveBytes(UDP_TIMEOUT);
+			} while (inMsg == null || !SensorMessageParser.contains(inMsg, IDENTIFIED));
 
 			/*
 			 * Start to drive
@@ -72,14 +117,17 @@ public class Client {
 				/*
 				 * Receives from TORCS the game state
 				 */
-				inMsg = mySocket.receive(UDP_TIMEOUT);
+				inMsg = mySocket.receiveBytes(UDP_TIMEOUT);
 
 				if (inMsg != null) {
+					if (recorder != null)
+						recorder.record(inMsg);
+					long tickStart = metrics != null ? System.nanoTime() : 0;
 
 					/*
 					 * Check if race is ended (shutdown)
 					 */
-					if (inMsg.indexOf("***shutdown***") >= 0) {
+					if (SensorMessageParser.contains(inMsg, SHUTDOWN)) {
 						shutdownOccurred = true;
 						System.out.println("Server shutdown!");
 						break;
@@ -88,23 +136,50 @@ public class Client {
 					/*
 					 * Check if race is restarted
 					 */
-					if (inMsg.indexOf("***restart***") >= 0) {
+					if (SensorMessageParser.contains(inMsg, RESTART)) {
 						driver.reset();
 						if (verbose)
 							System.out.println("Server restarting!");
 						break;
 					}
 
-					Action action = new Action();
-					if (currStep < maxSteps || maxSteps == 0)
-						action = driver.control(new MessageBasedSensorModel(inMsg));
-					else
-						action.restartRace = true;
+					Action action;
+					if (currStep < maxSteps || maxSteps == 0) {
+						sensors.refill(inMsg);
+						if (metrics != null) {
+							long parsed = System.nanoTime();
+							metrics.record(TickMetrics.Stage.PARSE, parsed - tickStart);
+							action = driver.control(sensors);
+							metrics.record(TickMetrics.Stage.CONTROL, System.nanoTime() - parsed);
+						} else
+							action = driver.control(sensors);
+					} else {
+						restartAction.reset();
+						restartAction.restartRace = true;
+						action = restartAction;
+					}
 
 					currStep++;
-					mySocket.send(action.toString());
-				} else
+					if (metrics != null) {
+						long encodeStart = System.nanoTime();
+						ActionEncoder.encode(action, outMsg);
+						long sendStart = System.nanoTime();
+						mySocket.send(outMsg);
+						long sent = System.nanoTime();
+						metrics.record(TickMetrics.Stage.ENCODE, sendStart - encodeStart);
+						metrics.record(TickMetrics.Stage.SEND, sent - sendStart);
+						metrics.tick(sent - tickStart);
+						// il comando è partito: c'è tempo fino al prossimo messaggio
+						metrics.dump(sent);
+					} else {
+						ActionEncoder.encode(action, outMsg);
+						mySocket.send(outMsg);
+					}
+				} else {
 					System.out.println("Server did not respond within the timeout");
+					if (metrics != null)
+						metrics.timeout();
+				}
 			}
 
 		} while (++curEpisode < maxEpisodes && !shutdownOccurred);
@@ -113,13 +188,20 @@ public class Client {
 		 * Shutdown the controller
 		 */
 		driver.shutdown();
+		if (metrics != null)
+			metrics.close();
+		if (recorder != null) {
+			try {
+				recorder.close();
+				System.out.println(recorder.count() + " messaggi registrati su " + recordFile);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		mySocket.close();
-		System.out.println("Client shutdown.");
-		System.out.println("Bye, bye!");
-
 	}
 
-	private static void parseParameters(String[] args) {
+	static void parseParameters(String[] args) {
 		/*
 		 * Set default values for the options
 		 */
@@ -131,6 +213,11 @@ public class Client {
 		maxSteps = 0;
 		stage = Stage.UNKNOWN;
 		trackName = "unknown";
+		nioTransport = true;
+		metricsEnabled = false;
+		metricsFile = "metriche_tick.txt";
+		metricsInterval = 10;
+		recordFile = null;
 
 		for (int i = 1; i < args.length; i++) {
 			StringTokenizer st = new StringTokenizer(args[i], ":");
@@ -164,6 +251,39 @@ public class Client {
 			if (entity.equals("trackName")) {
 				trackName = value;
 			}
+			if (entity.equals("transport")) {
+				if (value.equals("nio"))
+					nioTransport = true;
+				else if (value.equals("socket"))
+					nioTransport = false;
+				else {
+					System.out.println(entity + ":" + value + " is not a valid option");
+					System.exit(0);
+				}
+			}
+			if (entity.equals("metrics")) {
+				if (value.equals("on"))
+					metricsEnabled = true;
+				else if (value.equals("off"))
+					metricsEnabled = false;
+				else {
+					System.out.println(entity + ":" + value + " is not a valid option");
+					System.exit(0);
+				}
+			}
+			if (entity.equals("metricsFile")) {
+				metricsFile = value;
+			}
+			if (entity.equals("metricsInterval")) {
+				metricsInterval = Integer.parseInt(value);
+				if (metricsInterval < 0) {
+					System.out.println(entity + ":" + value + " is not a valid option");
+					System.exit(0);
+				}
+			}
+			if (entity.equals("record")) {
+				recordFile = value;
+			}
 			if (entity.equals("maxEpisodes")) {
 				maxEpisodes = Integer.parseInt(value);
 				if (maxEpisodes <= 0) {
@@ -181,7 +301,7 @@ public class Client {
 		}
 	}
 
-	private static Controller load(String name) {
+	static Controller load(String name) {
 		Controller controller = null;
 		try {
 			controller = (Controller) (Object) Class.forName(name).newInstance();
@@ -22,6 +22,8 @@ public abstract class Controller {
 
 	private Stage stage;
 	private String trackName;
+	// Metriche di latenza del client (null se disattivate)
+	private TickMetrics metrics;
 
 	public float[] initAngles() {
 		float[] angles = new float[19];
@@ -46,6 +48,14 @@ public abstract class Controller {
 		this.trackName = trackName;
 	}
 
+	public TickMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(TickMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public abstract Action control(SensorModel sensors);
 
 	public abstract void reset(); // called at the beginning of each new trial
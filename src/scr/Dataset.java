@@ -0,0 +1,307 @@
+package scr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
+/**
+ * Campioni di addestramento in memoria contigua: le features e i target di
+ * tutte le righe stanno in due blocchi primitivi per righe (la feature d
+ * della riga r è in posizione r * dimensions + d), indicizzati dalla
+ * posizione del campione. Al posto di una List<Sample> con due array per
+ * riga non ci sono oggetti per campione.
+ *
+ * Lo storage si sceglie alla creazione:
+ *   DOUBLE   double[] nello heap (predefinito, nessuna perdita di precisione)
+ *   FLOAT    float[] nello heap: metà memoria, valori arrotondati a float
+ *   OFF_HEAP double in un ByteBuffer diretto, fuori dallo heap e dal GC
+ * Il KDTree legge le coordinate da qui (squaredDistance) e non ne fa copie;
+ * VectorScanSearch ne tiene una trasposta per colonne nello stesso storage.
+ */
+public abstract class Dataset {
+
+    public enum Storage {
+        DOUBLE, FLOAT, OFF_HEAP
+    }
+
+    protected final int size;
+    protected final int dimensions;
+    protected final int targetCount;
+
+    protected Dataset(int size, int dimensions, int targetCount) {
+        this.size = size;
+        this.dimensions = dimensions;
+        this.targetCount = targetCount;
+    }
+
+    // Dataset vuoto (tutti zeri) da riempire con setFeature e setTarget
+    public static Dataset create(int size, int dimensions, int targetCount, Storage storage) {
+        switch (storage) {
+            case FLOAT:
+                return new FloatDataset(size, dimensions, targetCount);
+            case OFF_HEAP:
+                return new OffHeapDataset(size, dimensions, targetCount);
+            case DOUBLE:
+            default:
+                return new DoubleDataset(size, dimensions, targetCount, new double[size * dimensions],
+                        new double[size * targetCount]);
+        }
+    }
+
+    public static Dataset of(List<Sample> samples) {
+        return of(samples, Storage.DOUBLE);
+    }
+
+    public static Dataset of(List<Sample> samples, Storage storage) {
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("Points list cannot be empty");
+        }
+        Sample first = samples.get(0);
+        Dataset data = create(samples.size(), first.features.length, first.targets.length, storage);
+        for (int r = 0; r < data.size; r++) {
+            Sample s = samples.get(r);
+            for (int d = 0; d < data.dimensions; d++) {
+                data.setFeature(r, d, s.features[d]);
+            }
+            for (int t = 0; t < data.targetCount; t++) {
+                data.setTarget(r, t, s.targets[t]);
+            }
+        }
+        return data;
+    }
+
+    public static Dataset of(DatasetLoader.Table table, Storage storage) {
+        Dataset data = create(table.rows, table.features.length, table.targets.length, storage);
+        for (int d = 0; d < data.dimensions; d++) {
+            double[] column = table.features[d];
+            for (int r = 0; r < data.size; r++) {
+                data.setFeature(r, d, column[r]);
+            }
+        }
+        for (int t = 0; t < data.targetCount; t++) {
+            double[] column = table.targets[t];
+            for (int r = 0; r < data.size; r++) {
+                data.setTarget(r, t, column[r]);
+            }
+        }
+        return data;
+    }
+
+    // Usa direttamente gli array passati, senza copiarli (per ModelSnapshot)
+    static Dataset wrap(int size, int dimensions, int targetCount, double[] features, double[] targets) {
+        return new DoubleDataset(size, dimensions, targetCount, features, targets);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int targetCount() {
+        return targetCount;
+    }
+
+    public abstract Storage storage();
+
+    public abstract double feature(int row, int d);
+
+    public abstract double target(int row, int t);
+
+    public abstract void setFeature(int row, int d, double value);
+
+    public abstract void setTarget(int row, int t, double value);
+
+    /**
+     * Distanza al quadrato (kernel.squared) tra query e le features della
+     * riga, letta direttamente dallo storage: i motori di ricerca non tengono
+     * una propria copia delle coordinate.
+     */
+    public abstract double squaredDistance(double[] query, int row, DistanceKernel kernel, double bound);
+
+    // Copia le features della riga in dst a partire da offset
+    public void copyFeatures(int row, double[] dst, int offset) {
+        for (int d = 0; d < dimensions; d++) {
+            dst[offset + d] = feature(row, d);
+        }
+    }
+
+    // Nuovi array: da non usare nel percorso di predizione
+    public double[] features(int row) {
+        double[] f = new double[dimensions];
+        copyFeatures(row, f, 0);
+        return f;
+    }
+
+    public double[] targets(int row) {
+        double[] t = new double[targetCount];
+        for (int i = 0; i < targetCount; i++) {
+            t[i] = target(row, i);
+        }
+        return t;
+    }
+
+    public Sample sample(int row) {
+        return new Sample(features(row), targets(row));
+    }
+
+    // Copia delle righe indicate, nell'ordine dato e con lo stesso storage
+    public Dataset subset(int[] rows) {
+        Dataset out = create(rows.length, dimensions, targetCount, storage());
+        for (int r = 0; r < rows.length; r++) {
+            for (int d = 0; d < dimensions; d++) {
+                out.setFeature(r, d, feature(rows[r], d));
+            }
+            for (int t = 0; t < targetCount; t++) {
+                out.setTarget(r, t, target(rows[r], t));
+            }
+        }
+        return out;
+    }
+
+    public Dataset copy() {
+        int[] all = new int[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = i;
+        }
+        return subset(all);
+    }
+
+    private static final class DoubleDataset extends Dataset {
+        private final double[] features;
+        private final double[] targets;
+
+        DoubleDataset(int size, int dimensions, int targetCount, double[] features, double[] targets) {
+            super(size, dimensions, targetCount);
+            this.features = features;
+            this.targets = targets;
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.DOUBLE;
+        }
+
+        @Override
+        public double feature(int row, int d) {
+            return features[row * dimensions + d];
+        }
+
+        @Override
+        public double target(int row, int t) {
+            return targets[row * targetCount + t];
+        }
+
+        @Override
+        public void setFeature(int row, int d, double value) {
+            features[row * dimensions + d] = value;
+        }
+
+        @Override
+        public void setTarget(int row, int t, double value) {
+            targets[row * targetCount + t] = value;
+        }
+
+        @Override
+        public double squaredDistance(double[] query, int row, DistanceKernel kernel, double bound) {
+            return kernel.squared(query, features, row * dimensions, bound);
+        }
+
+        @Override
+        public void copyFeatures(int row, double[] dst, int offset) {
+            System.arraycopy(features, row * dimensions, dst, offset, dimensions);
+        }
+    }
+
+    private static final class FloatDataset extends Dataset {
+        private final float[] features;
+        private final float[] targets;
+
+        FloatDataset(int size, int dimensions, int targetCount) {
+            super(size, dimensions, targetCount);
+            this.features = new float[size * dimensions];
+            this.targets = new float[size * targetCount];
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.FLOAT;
+        }
+
+        @Override
+        public double feature(int row, int d) {
+            return features[row * dimensions + d];
+        }
+
+        @Override
+        public double target(int row, int t) {
+            return targets[row * targetCount + t];
+        }
+
+        @Override
+        public void setFeature(int row, int d, double value) {
+            features[row * dimensions + d] = (float) value;
+        }
+
+        @Override
+        public void setTarget(int row, int t, double value) {
+            targets[row * targetCount + t] = (float) value;
+        }
+
+        @Override
+        public double squaredDistance(double[] query, int row, DistanceKernel kernel, double bound) {
+            return kernel.squared(query, features, row * dimensions, bound);
+        }
+    }
+
+    private static final class OffHeapDataset extends Dataset {
+        private final DoubleBuffer features;
+        private final DoubleBuffer targets;
+
+        OffHeapDataset(int size, int dimensions, int targetCount) {
+            super(size, dimensions, targetCount);
+            this.features = allocate((long) size * dimensions);
+            this.targets = allocate((long) size * targetCount);
+        }
+
+        private static DoubleBuffer allocate(long count) {
+            if (count * Double.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Dataset troppo grande per un buffer diretto: " + count + " valori");
+            }
+            return ByteBuffer.allocateDirect((int) count * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+
+        @Override
+        public Storage storage() {
+            return Storage.OFF_HEAP;
+        }
+
+        @Override
+        public double feature(int row, int d) {
+            return features.get(row * dimensions + d);
+        }
+
+        @Override
+        public double target(int row, int t) {
+            return targets.get(row * targetCount + t);
+        }
+
+        @Override
+        public void setFeature(int row, int d, double value) {
+            features.put(row * dimensions + d, value);
+        }
+
+        @Override
+        public void setTarget(int row, int t, double value) {
+            targets.put(row * targetCount + t, value);
+        }
+
+        @Override
+        public double squaredDistance(double[] query, int row, DistanceKernel kernel, double bound) {
+            return kernel.squared(query, features, row * dimensions, bound);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package scr;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Caricamento dei dataset CSV (intestazione + una riga per campione)
+ * direttamente dai byte del file mappato in memoria, in array primitivi per
+ * colonna: niente readLine, split o trim, e nessun oggetto per riga.
+ *
+ * Le colonne delle feature si scelgono per nome dall'intestazione (di
+ * solito KNNClassifier.featureNames) e le altre vengono saltate senza
+ * convertirle; i target sono sempre le ultime colonne del file. Se
+ * l'intestazione non contiene tutti i nomi si usano, come Sample(String),
+ * tutte le colonne tranne i target.
+ *
+ * Le righe con un numero di colonne diverso dall'intestazione (ad esempio due
+ * righe fuse da una scrittura interrotta) vengono saltate e segnalate.
+ *
+ * Accetta anche le registrazioni binarie di DemonstrationRecorder,
+ * riconosciute dal magic number iniziale.
+ *
+ * I file più grandi di PARALLEL_BYTES vengono divisi in blocchi di righe
+ * analizzati in parallelo sul common pool.
+ */
+public final class DatasetLoader {
+
+    private static final int PARALLEL_BYTES = 4 << 20;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    // Dataset letto: valori per colonna, values[colonna][riga]
+    public static final class Table {
+        public final String[] featureNames;
+        public final double[][] features;
+        public final double[][] targets;
+        public final int rows;
+
+        Table(String[] featureNames, double[][] features, double[][] targets, int rows) {
+            this.featureNames = featureNames;
+            this.features = features;
+            this.targets = targets;
+            this.rows = rows;
+        }
+
+        // Converte in campioni per riga, come li usano KNNClassifier e KDTree
+        public List<Sample> toSamples() {
+            List<Sample> samples = new ArrayList<>(rows);
+            for (int r = 0; r < rows; r++) {
+                double[] f = new double[features.length];
+                double[] t = new double[targets.length];
+                for (int c = 0; c < f.length; c++) {
+                    f[c] = features[c][r];
+                }
+                for (int c = 0; c < t.length; c++) {
+                    t[c] = targets[c][r];
+                }
+                samples.add(new Sample(f, t));
+            }
+            return samples;
+        }
+    }
+
+    private DatasetLoader() {
+    }
+
+    public static Table load(String path, String[] featureNames, int targetCount) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " è troppo grande (" + ch.size() + " byte)");
+            }
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        // Registrazione binaria di ManualDriver (DemonstrationRecorder.Format.BINARY)
+        if (buf.limit() >= Integer.BYTES
+                && buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(0) == DemonstrationRecorder.MAGIC) {
+            return DemonstrationRecorder.readBinary(buf, featureNames, targetCount);
+        }
+        return load(buf, featureNames, targetCount, buf.limit() > PARALLEL_BYTES);
+    }
+
+    /**
+     * Legge il CSV contenuto tra position e limit di buf. featureNames null
+     * significa tutte le colonne tranne le ultime targetCount.
+     */
+    public static Table load(ByteBuffer buf, String[] featureNames, int targetCount, boolean parallel)
+            throws IOException {
+        int end = buf.limit();
+        int headerEnd = lineEnd(buf, buf.position(), end);
+        String[] header = splitHeader(buf, buf.position(), headerEnd);
+        int columns = header.length;
+        if (columns <= targetCount) {
+            throw new IOException("Il dataset ha solo " + columns + " colonne");
+        }
+
+        // slot[colonna del file] = indice nell'array di output, -1 per saltarla
+        int[] slot = new int[columns];
+        Arrays.fill(slot, -1);
+        String[] names = resolveFeatures(header, featureNames, targetCount);
+        List<String> headerList = Arrays.asList(header);
+        for (int f = 0; f < names.length; f++) {
+            slot[headerList.indexOf(names[f])] = f;
+        }
+        for (int t = 0; t < targetCount; t++) {
+            slot[columns - targetCount + t] = names.length + t;
+        }
+
+        // Blocchi di righe: il primo inizia dopo l'intestazione, gli altri
+        // dopo il primo fine riga successivo al loro offset
+        int bodyStart = Math.min(end, headerEnd + 1);
+        int chunks = parallel ? Math.max(1, (end - bodyStart) / CHUNK_BYTES) : 1;
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = bodyStart;
+        bounds[chunks] = end;
+        for (int c = 1; c < chunks; c++) {
+            int b = bodyStart + (int) ((long) (end - bodyStart) * c / chunks);
+            bounds[c] = Math.min(end, lineEnd(buf, Math.max(b, bounds[c - 1]), end) + 1);
+        }
+
+        // Ogni blocco analizza le sue righe in array propri, poi si concatenano
+        int outColumns = names.length + targetCount;
+        int estimatedRows = (bounds[1] - bounds[0]) / Math.max(1, headerEnd - buf.position()) + 16;
+        Chunk[] parsed = new Chunk[chunks];
+        forEachChunk(chunks, parallel, c -> {
+            parsed[c] = new Chunk(outColumns, estimatedRows);
+            parsed[c].parse(buf, bounds[c], bounds[c + 1], slot);
+        });
+
+        int rows = 0;
+        int malformed = 0;
+        for (Chunk chunk : parsed) {
+            rows += chunk.rows;
+            malformed += chunk.skipped;
+        }
+        if (malformed > 0) {
+            System.out.println("DatasetLoader: " + malformed + " righe con un numero di colonne diverso da "
+                    + columns + " ignorate");
+        }
+        double[][] out = new double[outColumns][rows];
+        int row = 0;
+        for (Chunk chunk : parsed) {
+            for (int c = 0; c < outColumns; c++) {
+                System.arraycopy(chunk.values[c], 0, out[c], row, chunk.rows);
+            }
+            row += chunk.rows;
+        }
+
+        return new Table(names, Arrays.copyOfRange(out, 0, names.length),
+                Arrays.copyOfRange(out, names.length, out.length), rows);
+    }
+
+    // Valori di un blocco di righe, per colonna, in array che crescono raddoppiando
+    private static final class Chunk {
+        double[][] values;
+        int rows;
+        int skipped;
+
+        Chunk(int columns, int capacity) {
+            values = new double[columns][capacity];
+        }
+
+        void parse(ByteBuffer buf, int start, int end, int[] slot) throws IOException {
+            int columns = slot.length;
+            int i = start;
+            while (i < end) {
+                int e = lineEnd(buf, i, end);
+                int lineEnd = trimEnd(buf, i, e);
+                if (lineEnd > i) {
+                    if (rows == values[0].length) {
+                        grow();
+                    }
+                    int col = 0;
+                    int field = i;
+                    while (true) {
+                        int fieldEnd = field;
+                        while (fieldEnd < lineEnd && buf.get(fieldEnd) != ',') fieldEnd++;
+                        if (col < columns && slot[col] >= 0) {
+                            values[slot[col]][rows] = parseField(buf, field, fieldEnd, i);
+                        }
+                        col++;
+                        if (fieldEnd >= lineEnd) break;
+                        field = fieldEnd + 1;
+                    }
+                    // i valori di una riga malformata vengono sovrascritti dalla successiva
+                    if (col == columns) {
+                        rows++;
+                    } else {
+                        skipped++;
+                    }
+                }
+                i = e + 1;
+            }
+        }
+
+        private void grow() {
+            for (int c = 0; c < values.length; c++) {
+                values[c] = Arrays.copyOf(values[c], values[c].length * 2);
+            }
+        }
+    }
+
+    private interface ChunkTask {
+        void run(int chunk) throws IOException;
+    }
+
+    private static void forEachChunk(int chunks, boolean parallel, ChunkTask task) throws IOException {
+        try {
+            IntStream range = IntStream.range(0, chunks);
+            (parallel ? range.parallel() : range).forEach(c -> {
+                try {
+                    task.run(c);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String[] resolveFeatures(String[] header, String[] featureNames, int targetCount) {
+        List<String> headerList = Arrays.asList(header);
+        if (featureNames != null && headerList.containsAll(Arrays.asList(featureNames))) {
+            return featureNames.clone();
+        }
+        // nomi mancanti: tutte le colonne tranne i target, come Sample(String)
+        return Arrays.copyOfRange(header, 0, header.length - targetCount);
+    }
+
+    private static double parseField(ByteBuffer buf, int start, int end, int lineStart) throws IOException {
+        while (start < end && buf.get(start) == ' ') start++;
+        while (end > start && buf.get(end - 1) == ' ') end--;
+        try {
+            return AsciiDouble.parse(buf, start, end);
+        } catch (NumberFormatException e) {
+            throw new IOException("Valore non numerico '" + AsciiDouble.toString(buf, start, end)
+                    + "' nella riga che inizia al byte " + lineStart);
+        }
+    }
+
+    // Posizione del '\n' che chiude la riga che inizia in start (o end)
+    private static int lineEnd(ByteBuffer buf, int start, int end) {
+        int i = start;
+        while (i < end && buf.get(i) != '\n') i++;
+        return i;
+    }
+
+    // Toglie '\r' e spazi finali della riga [start, end)
+    private static int trimEnd(ByteBuffer buf, int start, int end) {
+        while (end > start && (buf.get(end - 1) == '\r' || buf.get(end - 1) == ' ')) end--;
+        return end;
+    }
+
+    private static String[] splitHeader(ByteBuffer buf, int start, int end) {
+        String[] names = AsciiDouble.toString(buf, start, trimEnd(buf, start, end)).split(",");
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,378 @@
+package scr;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registrazione asincrona delle dimostrazioni di guida (ManualDriver): le
+ * 11 feature di KNNClassifier.featureNames e i comandi dati dal pilota.
+ *
+ * Il thread di controllo copia il frame in uno slot preallocato di una
+ * RingBuffer e torna subito; un thread in background scrive i frame a
+ * blocchi su un unico FileChannel aperto in append. Se la coda è piena il
+ * frame viene scartato e contato. close() scrive quello che resta e fa
+ * fsync del file.
+ *
+ * Formati:
+ *   CSV    stesse colonne e stessa formattazione del dataset letto da
+ *          KNNClassifier, con l'intestazione se il file è vuoto
+ *   BINARY little endian, intestazione int magic, int versione, int numero
+ *          di feature (solo se il file è vuoto), poi per ogni frame:
+ *          long nanosecondi dall'inizio della registrazione,
+ *          double[11] feature, double accelerazione, double freno,
+ *          double sterzo, int marcia (124 byte)
+ *
+ * I file BINARY si leggono con DatasetLoader.load come i CSV (quindi
+ * KNNClassifier, KNNTester e KNNTuner li usano direttamente) e si
+ * convertono in CSV con:
+ *   java scr.DemonstrationRecorder registrazione.demo uscita.csv
+ *
+ * rateHz limita i frame registrati al secondo (0 = tutti quelli passati a
+ * record).
+ */
+public class DemonstrationRecorder implements Closeable {
+
+    public enum Format {
+        CSV, BINARY
+    }
+
+    static final int MAGIC = 0x4F4D4544; // "DEMO"
+    static final int VERSION = 1;
+    static final String CSV_HEADER =
+            "Track2,Track5,Track8,Track9,Track10,Track13,Track16,TrackPosition,AngleToTrackAxis,Speed,SpeedY,"
+                    + "Accelerate,Brake,Steering,Gear\n";
+
+    private static final int FEATURES = KNNClassifier.featureNames.length;
+    static final int HEADER_BYTES = 3 * Integer.BYTES;
+    static final int FRAME_BYTES = Long.BYTES + (FEATURES + 3) * Double.BYTES + Integer.BYTES;
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int BUFFER_BYTES = 1 << 16;
+    // Spazio sufficiente per una riga CSV (15 numeri di al più 25 caratteri)
+    private static final int MAX_CSV_ROW_BYTES = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Frame in coda: riempito sul posto dal thread di controllo
+    private static final class Frame {
+        long nanos;
+        final double[] features = new double[FEATURES];
+        double accelerate;
+        double brake;
+        double steering;
+        int gear;
+    }
+
+    private final String path;
+    private final Format format;
+    private final long intervalNanos;
+    private final RingBuffer<Frame> queue;
+    private final long start = System.nanoTime();
+    private long lastCapture = Long.MIN_VALUE;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final FileChannel channel;
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    // record() in corso: close() li aspetta prima di chiedere l'ultima
+    // passata al thread di scrittura, così nessun frame pubblicato va perso
+    private final AtomicInteger recording = new AtomicInteger();
+    private volatile boolean stopping = false;
+
+    // Usati solo dal thread di scrittura
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final StringBuilder text = new StringBuilder(256);
+
+    public DemonstrationRecorder(String path, Format format, double rateHz) throws IOException {
+        this(path, format, rateHz, DEFAULT_CAPACITY);
+    }
+
+    public DemonstrationRecorder(String path, Format format, double rateHz, int capacity) throws IOException {
+        if (rateHz < 0) {
+            throw new IllegalArgumentException("La frequenza di registrazione deve essere >= 0: " + rateHz);
+        }
+        this.path = path;
+        this.format = format;
+        this.intervalNanos = rateHz == 0 ? 0 : (long) (1e9 / rateHz);
+        this.queue = new RingBuffer<>(capacity, Frame::new);
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        writerThread = new Thread(this::drainLoop, "demo-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Un file non vuoto deve avere lo stesso formato: si accodano i frame.
+    // Un frame binario troncato (sessione interrotta a metà scrittura) viene
+    // tagliato, altrimenti tutti i frame nuovi risulterebbero sfasati
+    private void writeHeader() throws IOException {
+        long size = channel.size();
+        if (format == Format.CSV) {
+            if (size == 0) {
+                for (int i = 0; i < CSV_HEADER.length(); i++) {
+                    buffer.put((byte) CSV_HEADER.charAt(i));
+                }
+                flush();
+            }
+            return;
+        }
+        if (size == 0) {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(FEATURES);
+            flush();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel in = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+            }
+        }
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                || header.getInt() != FEATURES) {
+            throw new IOException(path + " non è una registrazione binaria compatibile");
+        }
+        long end = HEADER_BYTES + (size - HEADER_BYTES) / FRAME_BYTES * FRAME_BYTES;
+        if (end < size) {
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Mette in coda un frame se è passato abbastanza tempo dal precedente.
+     * Non blocca e non alloca; restituisce true se il frame è stato preso
+     * (anche se poi scartato perché la coda era piena), false se saltato
+     * per rispettare la frequenza o perché il recorder è chiuso.
+     */
+    public boolean record(double[] features, double accelerate, double brake, double steering, int gear) {
+        recording.incrementAndGet();
+        try {
+            if (closed) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (intervalNanos > 0 && lastCapture != Long.MIN_VALUE && now - lastCapture < intervalNanos) {
+                return false;
+            }
+            lastCapture = now;
+            long pos = queue.tryClaim();
+            if (pos < 0) {
+                dropped.incrementAndGet();
+                return true;
+            }
+            Frame f = queue.get(pos);
+            f.nanos = now - start;
+            System.arraycopy(features, 0, f.features, 0, FEATURES);
+            f.accelerate = accelerate;
+            f.brake = brake;
+            f.steering = steering;
+            f.gear = gear;
+            queue.publish(pos);
+            return true;
+        } finally {
+            recording.decrementAndGet();
+        }
+    }
+
+    // Frame scritti su disco finora
+    public long getWritten() {
+        return written.get();
+    }
+
+    // Frame scartati perché la coda era piena
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Scrive i frame rimasti in coda, fa fsync e chiude il file. I frame
+     * passati a record da qui in poi vengono ignorati.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Un record() che non ha visto closed può ancora pubblicare: lo aspetto
+        while (recording.get() > 0) {
+            Thread.onSpinWait();
+        }
+        stopping = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        if (dropped.get() > 0) {
+            System.out.println("Registrazione " + path + ": " + dropped.get() + " frame scartati (coda piena)");
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            boolean lastPass = false;
+            while (true) {
+                boolean wrote = false;
+                long pos;
+                while ((pos = queue.poll()) >= 0) {
+                    append(queue.get(pos));
+                    queue.release(pos);
+                    written.incrementAndGet();
+                    wrote = true;
+                }
+                if (wrote) {
+                    flush();
+                }
+                if (lastPass) {
+                    break;
+                }
+                if (!wrote) {
+                    // Dopo stopping non arrivano più frame: un'ultima passata
+                    // raccoglie quelli pubblicati dopo il poll precedente
+                    if (stopping) {
+                        lastPass = true;
+                    } else {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // meglio perdere la registrazione che la guida
+            e.printStackTrace();
+        }
+    }
+
+    private void append(Frame f) throws IOException {
+        int needed = format == Format.BINARY ? FRAME_BYTES : MAX_CSV_ROW_BYTES;
+        if (buffer.remaining() < needed) {
+            flush();
+        }
+        if (format == Format.BINARY) {
+            buffer.putLong(f.nanos);
+            for (double v : f.features) {
+                buffer.putDouble(v);
+            }
+            buffer.putDouble(f.accelerate).putDouble(f.brake).putDouble(f.steering).putInt(f.gear);
+            return;
+        }
+        // Come la concatenazione che usava ManualDriver
+        text.setLength(0);
+        for (double v : f.features) {
+            text.append(v).append(',');
+        }
+        text.append(f.accelerate).append(',').append(f.brake).append(',').append(f.steering).append(',')
+                .append(f.gear).append('\n');
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Legge una registrazione BINARY (buf posizionato all'inizio del file)
+     * come DatasetLoader legge un CSV: le feature indicate per nome tra
+     * quelle registrate e gli ultimi targetCount tra accelerazione, frenata,
+     * sterzo e marcia. Un frame finale incompleto (registrazione interrotta)
+     * viene ignorato.
+     */
+    static DatasetLoader.Table readBinary(ByteBuffer buf, String[] featureNames, int targetCount)
+            throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getInt() != FEATURES) {
+            throw new IOException("Registrazione binaria non compatibile");
+        }
+        if (targetCount < 0 || targetCount > 4) {
+            throw new IOException("Una registrazione ha 4 target, richiesti " + targetCount);
+        }
+        int[] columns = new int[featureNames.length];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = -1;
+            for (int i = 0; i < FEATURES; i++) {
+                if (KNNClassifier.featureNames[i].equals(featureNames[c])) {
+                    columns[c] = i;
+                }
+            }
+            if (columns[c] < 0) {
+                throw new IOException("Feature " + featureNames[c] + " non presente nella registrazione");
+            }
+        }
+
+        int rows = buf.remaining() / FRAME_BYTES;
+        int base = buf.position();
+        double[][] features = new double[columns.length][rows];
+        double[][] targets = new double[targetCount][rows];
+        for (int r = 0; r < rows; r++) {
+            int frame = base + r * FRAME_BYTES + Long.BYTES;
+            for (int c = 0; c < columns.length; c++) {
+                features[c][r] = buf.getDouble(frame + columns[c] * Double.BYTES);
+            }
+            int commands = frame + FEATURES * Double.BYTES;
+            for (int t = 0; t < targetCount; t++) {
+                int command = 4 - targetCount + t;
+                targets[t][r] = command < 3
+                        ? buf.getDouble(commands + command * Double.BYTES)
+                        : buf.getInt(commands + 3 * Double.BYTES);
+            }
+        }
+        return new DatasetLoader.Table(featureNames.clone(), features, targets, rows);
+    }
+
+    // Converte una registrazione BINARY nel CSV che scriverebbe il formato CSV
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Uso: java scr.DemonstrationRecorder <registrazione.demo> <uscita.csv>");
+            return;
+        }
+        DatasetLoader.Table table = DatasetLoader.load(args[0], KNNClassifier.featureNames, 4);
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.US_ASCII)) {
+            out.write(CSV_HEADER);
+            StringBuilder line = new StringBuilder(256);
+            for (int r = 0; r < table.rows; r++) {
+                // Stessa formattazione di append()
+                line.setLength(0);
+                for (int i = 0; i < FEATURES; i++) {
+                    line.append(table.features[i][r]).append(',');
+                }
+                line.append(table.targets[0][r]).append(',').append(table.targets[1][r]).append(',')
+                        .append(table.targets[2][r]).append(',').append((int) table.targets[3][r]).append('\n');
+                out.append(line);
+            }
+        }
+        System.out.println(table.rows + " frame scritti su " + args[1]);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,179 @@
+package scr;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Distanza euclidea (eventualmente pesata) calcolata nello spazio dei quadrati.
+ *
+ * La ricerca dei vicini confronta solo distanze, quindi non serve mai la
+ * radice: si lavora con la somma dei quadrati e si interrompe il calcolo non
+ * appena la somma parziale supera la soglia corrente (il k-esimo vicino).
+ *
+ * I pesi, se presenti, moltiplicano il quadrato della differenza di ogni
+ * feature: w[i] * (a[i] - b[i])^2.
+ */
+public class DistanceKernel {
+
+    // Distanza euclidea semplice, senza pesi
+    public static final DistanceKernel EUCLIDEAN = new DistanceKernel(null);
+
+    private final double[] weights;
+
+    public DistanceKernel(double[] weights) {
+        if (weights != null) {
+            for (double w : weights) {
+                if (!(w >= 0)) {
+                    throw new IllegalArgumentException("I pesi devono essere non negativi: " + w);
+                }
+            }
+            weights = weights.clone();
+        }
+        this.weights = weights;
+    }
+
+    // Pesi per feature (null se la distanza non è pesata)
+    public double[] getWeights() {
+        return weights == null ? null : weights.clone();
+    }
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    /**
+     * Distanza descritta da "uniform" o da "Nome=peso+Nome=peso" (le feature
+     * non indicate pesano 1; peso 0 esclude la feature). È la sintassi di
+     * -Dscr.knn.weights e dell'opzione weights: di KNNTuner. Se tutti i pesi
+     * valgono 1 restituisce EUCLIDEAN.
+     */
+    public static DistanceKernel parse(String spec, String[] featureNames) {
+        spec = spec.trim();
+        if (spec.isEmpty() || spec.equals("uniform")) {
+            return EUCLIDEAN;
+        }
+        double[] weights = new double[featureNames.length];
+        Arrays.fill(weights, 1);
+        for (String entry : spec.split("\\+")) {
+            int eq = entry.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Peso non nella forma Nome=valore: " + entry);
+            }
+            weights[featureIndex(entry.substring(0, eq).trim(), featureNames)] =
+                    Double.parseDouble(entry.substring(eq + 1).trim());
+        }
+        return of(weights);
+    }
+
+    // EUCLIDEAN se tutti i pesi valgono 1, altrimenti la distanza pesata
+    public static DistanceKernel of(double[] weights) {
+        for (double w : weights) {
+            if (w != 1) {
+                return new DistanceKernel(weights);
+            }
+        }
+        return EUCLIDEAN;
+    }
+
+    // Inverso di parse: solo i pesi diversi da 1, "uniform" se non ce ne sono
+    public String toSpec(String[] featureNames) {
+        StringBuilder spec = new StringBuilder();
+        if (weights != null) {
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] != 1) {
+                    if (spec.length() > 0) spec.append('+');
+                    spec.append(featureNames[i]).append('=').append(weights[i]);
+                }
+            }
+        }
+        return spec.length() == 0 ? "uniform" : spec.toString();
+    }
+
+    private static int featureIndex(String name, String[] featureNames) {
+        for (int i = 0; i < featureNames.length; i++) {
+            if (featureNames[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Feature sconosciuta: " + name + " (valide: "
+                + String.join(", ", featureNames) + ")");
+    }
+
+    // Distanza al quadrato completa tra due vettori
+    public double squared(double[] a, double[] b) {
+        return squared(a, b, 0, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Distanza al quadrato tra query e il punto che inizia in data[offset].
+     * Appena la somma parziale supera bound il calcolo si interrompe e viene
+     * restituita la somma parziale (comunque maggiore di bound), così il
+     * chiamante scarta il punto senza finire il conto.
+     */
+    public double squared(double[] query, double[] data, int offset, double bound) {
+        int n = query.length;
+        double sum = 0;
+        if (weights == null) {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data[offset + i];
+                sum += diff * diff;
+                if (sum > bound) return sum;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data[offset + i];
+                sum += diff * diff * weights[i];
+                if (sum > bound) return sum;
+            }
+        }
+        return sum;
+    }
+
+    // Come sopra, per le righe di un Dataset in float (vedi Dataset.squaredDistance):
+    // il valore float viene promosso a double, poi le stesse operazioni
+    public double squared(double[] query, float[] data, int offset, double bound) {
+        int n = query.length;
+        double sum = 0;
+        if (weights == null) {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data[offset + i];
+                sum += diff * diff;
+                if (sum > bound) return sum;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data[offset + i];
+                sum += diff * diff * weights[i];
+                if (sum > bound) return sum;
+            }
+        }
+        return sum;
+    }
+
+    // Come sopra, per le righe di un Dataset fuori dallo heap
+    public double squared(double[] query, DoubleBuffer data, int offset, double bound) {
+        int n = query.length;
+        double sum = 0;
+        if (weights == null) {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data.get(offset + i);
+                sum += diff * diff;
+                if (sum > bound) return sum;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                double diff = query[i] - data.get(offset + i);
+                sum += diff * diff * weights[i];
+                if (sum > bound) return sum;
+            }
+        }
+        return sum;
+    }
+
+    // Contributo minimo alla distanza di un punto che sta oltre il piano di
+    // split sull'asse indicato: serve per il pruning dell'albero
+    public double axisSquared(int axis, double delta) {
+        double d2 = delta * delta;
+        return weights == null ? d2 : d2 * weights[axis];
+    }
+}
@@ -0,0 +1,318 @@
+package scr;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Server SCR finto per provare Client e SocketHandler senza TORCS.
+ *
+ * Risponde all'handshake con ***identified***, invia messaggi dei sensori
+ * a una frequenza fissa (o in lockstep, appena arriva la risposta) presi da
+ * un log di MessageRecorder o generati, e misura per ogni tick il tempo tra
+ * l'invio del messaggio e l'arrivo del comando. Una risposta che non arriva
+ * entro il periodo del tick è persa; se arriva dopo è contata come in
+ * ritardo e scartata. Tra un episodio e l'altro invia ***restart*** e alla
+ * fine ***shutdown***.
+ *
+ * Uso:
+ *   java scr.FakeScrServer [opzioni]
+ *   java scr.Client scr.SimpleDriver port:3001 maxEpisodes:N
+ *
+ * Opzioni:
+ *   - port:N porta UDP su cui ascoltare (il valore predefinito è 3001).
+ *   - source:nome log di MessageRecorder da cui prendere i messaggi, synth per generarli (il valore predefinito è synth).
+ *   - rate:N tick al secondo, 0 per inviare il messaggio successivo appena arriva la risposta (il valore predefinito è 50).
+ *   - ticks:N tick per episodio (il valore predefinito è 3000).
+ *   - episodes:N numero di episodi, separati da ***restart*** (il valore predefinito è 1).
+ *   - timeout:N attesa massima di una risposta in ms quando rate è 0 (il valore predefinito è 1000).
+ */
+public class FakeScrServer {
+
+    private static final byte[] IDENTIFIED = "***identified***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESTART = "***restart***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SHUTDOWN = "***shutdown***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INIT = "(init".getBytes(StandardCharsets.US_ASCII);
+    private static final int SYNTH_MESSAGES = 1000;
+
+    private static int port;
+    private static String source;
+    private static int rate;
+    private static long ticks;
+    private static int episodes;
+    private static int timeout;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(4096);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(4096);
+    private final List<ByteBuffer> messages;
+    private SocketAddress client;
+    private int nextMessage;
+
+    // statistiche dell'episodio corrente
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long sent;
+    private long dropped;
+    private long late;
+
+    public FakeScrServer(int port, List<ByteBuffer> messages) throws IOException {
+        this.messages = messages;
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public static void main(String[] args) throws IOException {
+        parseParameters(args);
+        List<ByteBuffer> messages = source.equals("synth") ? synthesize(SYNTH_MESSAGES) : load(source);
+        if (messages.isEmpty()) {
+            System.out.println("Nessun messaggio dei sensori in " + source);
+            return;
+        }
+        FakeScrServer server = new FakeScrServer(port, messages);
+        System.out.println("Server SCR finto in ascolto sulla porta " + port + " (" + messages.size() + " messaggi)");
+        try {
+            for (int e = 1; e <= episodes; e++) {
+                server.awaitClient();
+                server.runEpisode(ticks);
+                server.report("episodio " + e);
+                server.send(e < episodes ? RESTART : SHUTDOWN);
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    // Aspetta un messaggio (init ...) e risponde ***identified***
+    private void awaitClient() throws IOException {
+        while (true) {
+            SocketAddress from = receive(0);
+            if (from != null && SensorMessageParser.contains(in, INIT)) {
+                client = from;
+                send(IDENTIFIED);
+                return;
+            }
+        }
+    }
+
+    private void runEpisode(long ticks) throws IOException {
+        latency.reset();
+        sent = dropped = late = 0;
+        long period = rate > 0 ? 1_000_000_000L / rate : 0;
+        long start = System.nanoTime();
+
+        for (long t = 0; t < ticks; t++) {
+            long tickStart = period > 0 ? start + t * period : System.nanoTime();
+            waitUntil(tickStart);
+
+            // le risposte arrivate dopo la scadenza del tick precedente sono in ritardo
+            while (receive(-1) != null) {
+                if (!SensorMessageParser.contains(in, INIT))
+                    late++;
+            }
+
+            ByteBuffer msg = messages.get(nextMessage);
+            nextMessage = (nextMessage + 1) % messages.size();
+            long sendTime = System.nanoTime();
+            channel.send(msg.duplicate(), client);
+            sent++;
+
+            long deadline = period > 0 ? tickStart + period : sendTime + timeout * 1_000_000L;
+            if (awaitResponse(deadline)) {
+                latency.record(System.nanoTime() - sendTime);
+            } else {
+                dropped++;
+            }
+        }
+    }
+
+    // true se la risposta al messaggio appena inviato arriva entro deadline
+    private boolean awaitResponse(long deadline) throws IOException {
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            SocketAddress from = receive(Math.max(1, remaining / 1_000_000L));
+            if (from != null) {
+                if (SensorMessageParser.contains(in, INIT)) {
+                    // il client si è ricollegato: ripeto l'handshake
+                    client = from;
+                    send(IDENTIFIED);
+                    continue;
+                }
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Riceve un datagramma in in: timeoutMs 0 = attesa senza limite, -1 = solo
+     * quello che è già arrivato. Restituisce il mittente o null.
+     */
+    private SocketAddress receive(long timeoutMs) throws IOException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        while (true) {
+            in.clear();
+            SocketAddress from = channel.receive(in);
+            if (from != null) {
+                in.flip();
+                return from;
+            }
+            if (timeoutMs < 0)
+                return null;
+            long wait = 0;
+            if (timeoutMs > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return null;
+                // select(0) aspetterebbe per sempre
+                wait = Math.max(1, remaining / 1_000_000L);
+            }
+            selector.select(wait);
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void send(byte[] msg) throws IOException {
+        out.clear();
+        out.put(msg).flip();
+        channel.send(out, client);
+    }
+
+    private void report(String title) {
+        System.out.printf(Locale.US,
+                "%s: %d messaggi, %d risposte, %d perse, %d in ritardo; latenza us p50 %.1f p99 %.1f p99.9 %.1f max %.1f%n",
+                title, sent, latency.count(), dropped, late, latency.percentile(0.5) / 1e3,
+                latency.percentile(0.99) / 1e3, latency.percentile(0.999) / 1e3, latency.max() / 1e3);
+    }
+
+    private void close() throws IOException {
+        selector.close();
+        channel.close();
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    // Messaggi dei sensori di un log registrato (i messaggi di controllo sono saltati)
+    private static List<ByteBuffer> load(String path) throws IOException {
+        MessageLogReader log = new MessageLogReader(path);
+        List<ByteBuffer> messages = new ArrayList<>();
+        while (log.next()) {
+            ByteBuffer msg = log.message();
+            if (msg.remaining() > 0 && msg.get(msg.position()) == '(') {
+                ByteBuffer copy = ByteBuffer.allocateDirect(msg.remaining());
+                copy.put(msg.duplicate()).flip();
+                messages.add(copy);
+            }
+        }
+        return messages;
+    }
+
+    /*
+     * Messaggi generati: un'auto che percorre curve alternate a destra e a
+     * sinistra, con i sensori di pista coerenti con la curvatura
+     */
+    static List<ByteBuffer> synthesize(int count) {
+        List<ByteBuffer> messages = new ArrayList<>(count);
+        StringBuilder sb = new StringBuilder(1024);
+        for (int i = 0; i < count; i++) {
+            double phase = 2 * Math.PI * i / count;
+            double curve = Math.sin(3 * phase); // -1 sinistra, 1 destra
+            double trackPos = 0.3 * Math.sin(5 * phase);
+            double angle = 0.05 * Math.cos(3 * phase);
+            double speed = 80 + 60 * (1 - Math.abs(curve));
+
+            sb.setLength(0);
+            sb.append("(angle ").append(fmt(angle)).append(')');
+            sb.append("(curLapTime ").append(fmt(i * 0.02)).append(')');
+            sb.append("(damage 0)");
+            sb.append("(distFromStart ").append(fmt(i * speed / 180)).append(')');
+            sb.append("(distRaced ").append(fmt(i * speed / 180)).append(')');
+            sb.append("(fuel 94)");
+            sb.append("(gear ").append(1 + (int) (speed / 40)).append(')');
+            sb.append("(lastLapTime 0)");
+            sb.append("(opponents");
+            for (int o = 0; o < PrimitiveSensorModel.OPPONENT_SENSORS; o++)
+                sb.append(" 200");
+            sb.append(')');
+            sb.append("(racePos 1)");
+            sb.append("(rpm ").append(fmt(3000 + 40 * (speed % 40))).append(')');
+            sb.append("(speedX ").append(fmt(speed)).append(')');
+            sb.append("(speedY ").append(fmt(2 * curve)).append(')');
+            sb.append("(speedZ -0.0002)");
+            sb.append("(track");
+            for (int s = 0; s < PrimitiveSensorModel.TRACK_SENSORS; s++) {
+                double sensorAngle = Math.toRadians(-90 + s * 10);
+                // la curva accorcia i sensori dal lato verso cui gira la pista
+                double free = 200 * Math.pow(Math.cos(sensorAngle), 8) * (1 - 0.8 * Math.abs(curve));
+                double side = (1 + Math.signum(sensorAngle) * curve) * 5 + (1 - trackPos * Math.signum(sensorAngle)) * 4;
+                sb.append(' ').append(fmt(Math.min(200, Math.max(side, free))));
+            }
+            sb.append(')');
+            sb.append("(trackPos ").append(fmt(trackPos)).append(')');
+            sb.append("(wheelSpinVel 0 0 0 0)");
+            sb.append("(z 0.345)");
+            sb.append("(focus -1 -1 -1 -1 -1)");
+
+            ByteBuffer msg = ByteBuffer.allocateDirect(sb.length());
+            for (int c = 0; c < sb.length(); c++)
+                msg.put((byte) sb.charAt(c));
+            msg.flip();
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    private static String fmt(double v) {
+        return String.format(Locale.US, "%.4f", v);
+    }
+
+    private static void parseParameters(String[] args) {
+        port = 3001;
+        source = "synth";
+        rate = 50;
+        ticks = 3000;
+        episodes = 1;
+        timeout = 1000;
+
+        for (String arg : args) {
+            StringTokenizer st = new StringTokenizer(arg, ":");
+            String entity = st.nextToken();
+            String value = st.nextToken();
+            if (entity.equals("port")) {
+                port = Integer.parseInt(value);
+            } else if (entity.equals("source")) {
+                source = value;
+            } else if (entity.equals("rate")) {
+                rate = Integer.parseInt(value);
+            } else if (entity.equals("ticks")) {
+                ticks = Long.parseLong(value);
+            } else if (entity.equals("episodes")) {
+                episodes = Integer.parseInt(value);
+            } else if (entity.equals("timeout")) {
+                timeout = Integer.parseInt(value);
+            } else {
+                System.out.println(entity + ":" + value + " is not a valid option");
+                System.exit(0);
+            }
+        }
+    }
+}
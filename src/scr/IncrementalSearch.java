@@ -0,0 +1,280 @@
+package scr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Ricerca dei k vicini su un insieme di punti che cresce mentre il driver
+ * è in esecuzione.
+ *
+ * I punti già consolidati stanno in un Dataset con il suo motore di ricerca
+ * (di solito un KDTree); quelli aggiunti dopo finiscono in un buffer delta
+ * in coda, confrontato a forza bruta a ogni query insieme al risultato
+ * dell'albero. Quando il delta supera rebuildThreshold righe un thread in
+ * background costruisce un nuovo Dataset (vecchi punti + delta) e il suo
+ * albero, poi li sostituisce con un'unica scrittura volatile: le query non
+ * prendono mai lock e add() non aspetta mai la ricostruzione.
+ *
+ * Gli id sono stabili: le righe iniziali mantengono il loro indice e la
+ * i-esima riga aggiunta ha id initialSize + i, prima e dopo la
+ * ricostruzione, quindi il risultato è lo stesso che darebbe un albero
+ * costruito da zero su tutti i punti nell'ordine di inserimento.
+ *
+ * add() va chiamato da un thread alla volta; le query e target() da
+ * qualsiasi thread.
+ */
+public class IncrementalSearch implements NeighborSearch {
+
+    // Punti consolidati: le prime mergedRows righe aggiunte sono già in data
+    private static final class State {
+        final Dataset data;
+        final NeighborSearch search;
+        final int mergedRows;
+
+        State(Dataset data, NeighborSearch search, int mergedRows) {
+            this.data = data;
+            this.search = search;
+            this.mergedRows = mergedRows;
+        }
+    }
+
+    // Righe aggiunte a partire dalla riga first, per righe come Dataset.
+    // Gli array non vengono più scritti dopo essere stati sostituiti.
+    private static final class Delta {
+        final double[] features;
+        final double[] targets;
+        final int first;
+
+        Delta(int capacity, int dimensions, int targetCount, int first) {
+            features = new double[capacity * dimensions];
+            targets = new double[capacity * targetCount];
+            this.first = first;
+        }
+
+        int capacity(int dimensions) {
+            return features.length / dimensions;
+        }
+    }
+
+    private static final int INITIAL_DELTA_CAPACITY = 256;
+
+    private final int dimensions;
+    private final int targetCount;
+    private final int initialSize;
+    private final DistanceKernel kernel;
+    private final Function<Dataset, NeighborSearch> builder;
+    private final int rebuildThreshold;
+
+    // Ordine delle scritture in add(): delta (se cresce), riga, added.
+    // Le letture avvengono in ordine inverso (added, delta, state): così il
+    // delta letto contiene tutte le righe contate e inizia non oltre
+    // state.mergedRows.
+    private volatile State state;
+    private volatile Delta delta;
+    private volatile int added;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final ExecutorService rebuilder;
+    private volatile long rebuilds;
+
+    public IncrementalSearch(Dataset data, NeighborSearch search, Function<Dataset, NeighborSearch> builder,
+            int rebuildThreshold) {
+        if (rebuildThreshold < 1) {
+            throw new IllegalArgumentException("La soglia di ricostruzione deve essere >= 1: " + rebuildThreshold);
+        }
+        this.dimensions = data.dimensions();
+        this.targetCount = data.targetCount();
+        this.initialSize = data.size();
+        this.kernel = search.kernel();
+        this.builder = builder;
+        this.rebuildThreshold = rebuildThreshold;
+        this.state = new State(data, search, 0);
+        this.delta = new Delta(INITIAL_DELTA_CAPACITY, dimensions, targetCount, 0);
+        this.rebuilder = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "knn-rebuild");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Aggiunge un punto (features e target già normalizzati). Non alloca
+     * finché il buffer ha spazio; quando è pieno lo sostituisce con uno più
+     * grande che tiene solo le righe non ancora consolidate.
+     */
+    public void add(double[] features, double[] targets) {
+        int row = added;
+        Delta d = delta;
+        if (row - d.first == d.capacity(dimensions)) {
+            d = grow(d, row);
+        }
+        int at = row - d.first;
+        System.arraycopy(features, 0, d.features, at * dimensions, dimensions);
+        System.arraycopy(targets, 0, d.targets, at * targetCount, targetCount);
+        added = row + 1;
+
+        if (row + 1 - state.mergedRows >= rebuildThreshold && rebuilding.compareAndSet(false, true)) {
+            rebuilder.execute(this::rebuild);
+        }
+    }
+
+    private Delta grow(Delta old, int rows) {
+        int first = state.mergedRows;
+        int pending = rows - first;
+        Delta d = new Delta(Math.max(INITIAL_DELTA_CAPACITY, pending * 2), dimensions, targetCount, first);
+        System.arraycopy(old.features, (first - old.first) * dimensions, d.features, 0, pending * dimensions);
+        System.arraycopy(old.targets, (first - old.first) * targetCount, d.targets, 0, pending * targetCount);
+        delta = d;
+        return d;
+    }
+
+    // Gira sul thread di ricostruzione: consolida tutte le righe presenti
+    // all'inizio, pubblica il nuovo stato e ricomincia se nel frattempo il
+    // delta ha di nuovo superato la soglia
+    private void rebuild() {
+        try {
+            while (true) {
+                int rows = added;
+                Delta d = delta;
+                State s = state;
+                int pending = rows - s.mergedRows;
+                if (pending < rebuildThreshold) {
+                    return;
+                }
+                Dataset merged = Dataset.create(s.data.size() + pending, dimensions, targetCount,
+                        s.data.storage());
+                for (int r = 0; r < s.data.size(); r++) {
+                    for (int i = 0; i < dimensions; i++) merged.setFeature(r, i, s.data.feature(r, i));
+                    for (int t = 0; t < targetCount; t++) merged.setTarget(r, t, s.data.target(r, t));
+                }
+                for (int p = 0; p < pending; p++) {
+                    int at = s.mergedRows + p - d.first;
+                    int r = s.data.size() + p;
+                    for (int i = 0; i < dimensions; i++) merged.setFeature(r, i, d.features[at * dimensions + i]);
+                    for (int t = 0; t < targetCount; t++) merged.setTarget(r, t, d.targets[at * targetCount + t]);
+                }
+                state = new State(merged, builder.apply(merged), rows);
+                rebuilds++;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    @Override
+    public int kNearestNeighbors(double[] query, int k, NeighborHeap heap, int[] outIds, double[] outDists) {
+        return kNearestNeighbors(query, k, 0, heap, null, outIds, outDists);
+    }
+
+    // Il limite maxChecks vale per il motore consolidato; il delta è sempre
+    // confrontato per intero
+    @Override
+    public int kNearestNeighbors(double[] query, int k, int maxChecks, NeighborHeap heap,
+            BranchQueue branches, int[] outIds, double[] outDists) {
+        int rows = added;
+        Delta d = delta;
+        State s = state;
+        int count = maxChecks > 0
+                ? s.search.kNearestNeighbors(query, k, maxChecks, heap, branches, outIds, outDists)
+                : s.search.kNearestNeighbors(query, k, heap, outIds, outDists);
+        if (rows <= s.mergedRows) {
+            return count;
+        }
+
+        // Unisce i k migliori dell'albero con il delta, confrontato a forza bruta
+        heap.reset(k);
+        for (int n = 0; n < count; n++) {
+            heap.offer(outIds[n], outDists[n]);
+        }
+        for (int row = s.mergedRows; row < rows; row++) {
+            double worst = heap.worst();
+            double dist = kernel.squared(query, d.features, (row - d.first) * dimensions, worst);
+            if (dist <= worst) {
+                heap.offer(initialSize + row, dist);
+            }
+        }
+        return heap.drainSorted(outIds, outDists);
+    }
+
+    // Target t del punto con l'id restituito da una ricerca (anche precedente)
+    public double target(int id, int t) {
+        Delta d = delta;
+        State s = state;
+        if (id < s.data.size()) {
+            return s.data.target(id, t);
+        }
+        return d.targets[(id - initialSize - d.first) * targetCount + t];
+    }
+
+    public double feature(int id, int i) {
+        Delta d = delta;
+        State s = state;
+        if (id < s.data.size()) {
+            return s.data.feature(id, i);
+        }
+        return d.features[(id - initialSize - d.first) * dimensions + i];
+    }
+
+    /**
+     * Tutti i punti, anche quelli nel delta, in un Dataset nell'ordine degli
+     * id (per salvare il modello). Se il delta è vuoto restituisce quello
+     * consolidato senza copiarlo.
+     */
+    public Dataset dataset() {
+        int rows = added;
+        State s = state;
+        if (rows <= s.mergedRows) {
+            return s.data;
+        }
+        Dataset all = Dataset.create(initialSize + rows, dimensions, targetCount, s.data.storage());
+        for (int id = 0; id < all.size(); id++) {
+            for (int i = 0; i < dimensions; i++) all.setFeature(id, i, feature(id, i));
+            for (int t = 0; t < targetCount; t++) all.setTarget(id, t, target(id, t));
+        }
+        return all;
+    }
+
+    // Motore del Dataset consolidato, valido per dataset() solo se pendingRows() == 0
+    NeighborSearch consolidatedSearch() {
+        return state.search;
+    }
+
+    // Righe aggiunte e non ancora nell'albero
+    public int pendingRows() {
+        return added - state.mergedRows;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    // Aspetta la ricostruzione in corso e ferma il thread
+    public void close() {
+        rebuilder.shutdown();
+        try {
+            rebuilder.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int size() {
+        return initialSize + added;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public DistanceKernel kernel() {
+        return kernel;
+    }
+}
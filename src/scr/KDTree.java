@@ -1,67 +1,344 @@
 package scr;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-public class KDTree {
+/**
+ * KD-tree implicito memorizzato in array contigui.
+ *
+ * Il nodo che copre l'intervallo [lo, hi) sta in posizione mid = (lo + hi) / 2,
+ * il sottoalbero sinistro occupa [lo, mid) e quello destro [mid + 1, hi).
+ * Per ogni nodo si tiene solo l'asse di split e la riga del Dataset: le
+ * coordinate si leggono dal Dataset stesso, senza una seconda copia, così lo
+ * storage scelto (FLOAT, OFF_HEAP) vale anche per l'albero. La ricerca non
+ * segue puntatori e non alloca oggetti.
+ */
+public class KDTree implements NeighborSearch {
 
-    private KDNode root;
-    private int dimensions;
+    private final int dimensions;
+    private final int size;
+    // Asse di split del nodo i
+    private final byte[] splitAxis;
+    // Riga del dataset corrispondente al nodo i
+    private final int[] ids;
+    // Campioni nell'ordine originale, indicizzati dagli id restituiti dalla
+    // ricerca: anche le coordinate dei nodi vengono lette da qui
+    private final Dataset data;
+    // Distanza usata per la ricerca e per il pruning
+    private final DistanceKernel kernel;
+
+    // Sottoalberi da almeno tanti punti vengono costruiti in un task separato
+    private static final int PARALLEL_BUILD_THRESHOLD = 1 << 13;
 
     public KDTree(List<Sample> points) {
-        if (points.isEmpty()) {
+        this(points, DistanceKernel.EUCLIDEAN);
+    }
+
+    public KDTree(List<Sample> points, DistanceKernel kernel) {
+        this(Dataset.of(points), kernel);
+    }
+
+    public KDTree(Dataset data, DistanceKernel kernel) {
+        if (data.size() == 0) {
             throw new IllegalArgumentException("Points list cannot be empty");
         }
-        this.dimensions = points.get(0).features.length;
-        root = buildTree(points, 0);
+        this.dimensions = data.dimensions();
+        this.size = data.size();
+        this.splitAxis = new byte[size];
+        this.ids = new int[size];
+        this.data = data;
+        this.kernel = kernel;
+
+        // Coordinate nell'ordine originale, lette una volta sola dal dataset;
+        // servono solo durante la costruzione
+        double[] coords = new double[size * dimensions];
+        for (int i = 0; i < size; i++) {
+            data.copyFeatures(i, coords, i * dimensions);
+            ids[i] = i;
+        }
+        BuildTask root = new BuildTask(coords, new double[size], 0, size);
+        if (size >= PARALLEL_BUILD_THRESHOLD) {
+            ForkJoinPool.commonPool().invoke(root);
+        } else {
+            root.compute();
+        }
     }
 
-    private static class KDNode {
-        Sample point;
-        KDNode left, right;
+    // Ricostruisce un albero già costruito (da ModelSnapshot) senza rifare la
+    // costruzione: bastano righe e assi dei nodi
+    KDTree(Dataset data, DistanceKernel kernel, int[] ids, byte[] splitAxis) {
+        this.dimensions = data.dimensions();
+        this.size = data.size();
+        if (ids.length != size || splitAxis.length != size) {
+            throw new IllegalArgumentException("Layout dell'albero non coerente con i punti");
+        }
+        this.splitAxis = splitAxis;
+        this.ids = ids;
+        this.data = data;
+        this.kernel = kernel;
+    }
+
+    /*
+     * Costruisce il sottoalbero dell'intervallo [lo, hi) di ids: sceglie come
+     * asse quello di massima estensione e porta in posizione mid, con
+     * quickselect, il mediano lungo quell'asse (a sinistra i valori <=, a
+     * destra i >=). Ogni livello costa O(n), quindi la costruzione è
+     * O(n log n) e lavora solo su int e double, senza boxing né comparatori.
+     * I sottoalberi abbastanza grandi vengono costruiti in parallelo: gli
+     * intervalli di ids e keys sono disgiunti, quindi i task non si pestano
+     * i piedi.
+     */
+    private final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] coords;
+        // keys[i] = coordinata di ids[i] lungo l'asse del nodo in costruzione
+        private final double[] keys;
+        private final int lo;
+        private final int hi;
+        private final double[] min = new double[dimensions];
+        private final double[] max = new double[dimensions];
+
+        BuildTask(double[] coords, double[] keys, int lo, int hi) {
+            this.coords = coords;
+            this.keys = keys;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            build(lo, hi);
+        }
+
+        private void build(int lo, int hi) {
+            while (lo < hi) {
+                int node = (lo + hi) >>> 1;
+                int axis = widestAxis(lo, hi);
+                for (int i = lo; i < hi; i++) {
+                    keys[i] = coords[ids[i] * dimensions + axis];
+                }
+                select(lo, hi - 1, node);
+                splitAxis[node] = (byte) axis;
+
+                if (node - lo >= PARALLEL_BUILD_THRESHOLD) {
+                    BuildTask left = new BuildTask(coords, keys, lo, node);
+                    left.fork();
+                    build(node + 1, hi);
+                    left.join();
+                    return;
+                }
+                build(lo, node);
+                lo = node + 1;
+            }
+        }
 
-        KDNode(Sample point) {
-            this.point = point;
+        // Una sola passata sulle righe dell'intervallo; a parità di
+        // estensione vince l'asse più basso. Con una distanza pesata
+        // l'estensione è misurata con i pesi, così gli assi a peso zero
+        // (feature escluse) non vengono mai scelti come split
+        private int widestAxis(int lo, int hi) {
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (int i = lo; i < hi; i++) {
+                int base = ids[i] * dimensions;
+                for (int d = 0; d < dimensions; d++) {
+                    double v = coords[base + d];
+                    if (v < min[d]) min[d] = v;
+                    if (v > max[d]) max[d] = v;
+                }
+            }
+            int best = 0;
+            double bestSpread = -1;
+            boolean weighted = kernel.isWeighted();
+            for (int d = 0; d < dimensions; d++) {
+                double spread = weighted ? kernel.axisSquared(d, max[d] - min[d]) : max[d] - min[d];
+                if (spread > bestSpread) {
+                    bestSpread = spread;
+                    best = d;
+                }
+            }
+            return best;
         }
+
+        // Quickselect (partizione di Hoare, pivot mediano di tre) su
+        // [lo, hi] inclusi: alla fine in k c'è il k-esimo valore di keys
+        private void select(int lo, int hi, int k) {
+            while (hi > lo) {
+                double a = keys[lo];
+                double b = keys[(lo + hi) >>> 1];
+                double c = keys[hi];
+                double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (keys[i] < pivot) i++;
+                    while (keys[j] > pivot) j--;
+                    if (i <= j) {
+                        double key = keys[i];
+                        keys[i] = keys[j];
+                        keys[j] = key;
+                        int id = ids[i];
+                        ids[i] = ids[j];
+                        ids[j] = id;
+                        i++;
+                        j--;
+                    }
+                }
+                // [lo, j] <= pivot, [i, hi] >= pivot, in mezzo solo valori uguali al pivot
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public DistanceKernel kernel() {
+        return kernel;
     }
 
-    private KDNode buildTree(List<Sample> points, int depth) {
-        if (points.isEmpty()) return null;
+    // Layout dell'albero, per salvarlo su file
+    int[] nodeIds() {
+        return ids;
+    }
 
-        int axis = depth % dimensions;
-        points.sort(Comparator.comparingDouble(p -> p.features[axis]));
-        int medianIndex = points.size() / 2;
+    byte[] nodeSplitAxes() {
+        return splitAxis;
+    }
 
-        KDNode node = new KDNode(points.get(medianIndex));
-        node.left = buildTree(points.subList(0, medianIndex), depth + 1);
-        node.right = buildTree(points.subList(medianIndex + 1, points.size()), depth + 1);
-        return node;
+    // Copia del campione corrispondente a un id restituito dalla ricerca
+    public Sample getSample(int id) {
+        return data.sample(id);
     }
 
+    /**
+     * Cerca i k vicini di query senza allocare: usa lo heap passato come
+     * spazio di lavoro e scrive gli id (posizioni nella lista originale) e le
+     * distanze al quadrato, in ordine crescente, negli array del chiamante.
+     * Restituisce il numero di vicini trovati (min(k, size)).
+     */
+    @Override
+    public int kNearestNeighbors(double[] query, int k, NeighborHeap heap, int[] outIds, double[] outDists) {
+        heap.reset(k);
+        search(query, 0, size, heap);
+        return heap.drainSorted(outIds, outDists);
+    }
+
+    // Versione comoda che restituisce copie dei campioni; alloca a ogni chiamata
     public List<Sample> kNearestNeighbors(Sample target, int k) {
-        PriorityQueue<Sample> pq = new PriorityQueue<>(k, Comparator.comparingDouble(target::distance).reversed());
-        kNearestNeighbors(root, target, k, 0, pq);
-        return new ArrayList<>(pq);
+        int n = Math.min(k, size);
+        int[] found = new int[n];
+        double[] dists = new double[n];
+        n = kNearestNeighbors(target.features, k, new NeighborHeap(k), found, dists);
+        List<Sample> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(data.sample(found[i]));
+        }
+        return result;
     }
 
-    private void kNearestNeighbors(KDNode node, Sample target, int k, int depth, PriorityQueue<Sample> pq) {
-        if (node == null) return;
+    /**
+     * Ricerca best-bin-first: scende verso la foglia più vicina mettendo in
+     * coda i rami scartati con la loro distanza minima dalla query, poi
+     * riprende sempre dal ramo più promettente. Si ferma dopo maxChecks
+     * distanze calcolate (una volta trovati almeno k punti) o quando nessun
+     * ramo in coda può più migliorare il risultato; in quel caso il risultato
+     * è esatto. maxChecks regola il compromesso tra richiamo e latenza.
+     */
+    @Override
+    public int kNearestNeighbors(double[] query, int k, int maxChecks, NeighborHeap heap,
+            BranchQueue branches, int[] outIds, double[] outDists) {
+        if (maxChecks <= 0) {
+            return kNearestNeighbors(query, k, heap, outIds, outDists);
+        }
+        heap.reset(k);
+        branches.clear();
+        branches.push(0, size, 0);
+        int checks = 0;
+        while (!branches.isEmpty()) {
+            double bound = branches.minBound();
+            if (bound > heap.worst()) {
+                break;
+            }
+            int lo = branches.minLo();
+            int hi = branches.minHi();
+            branches.pop();
+
+            while (lo < hi) {
+                if (checks >= maxChecks && heap.isFull()) {
+                    return heap.drainSorted(outIds, outDists);
+                }
+                int node = (lo + hi) >>> 1;
+                int row = ids[node];
+                double worst = heap.worst();
+                double dist = data.squaredDistance(query, row, kernel, worst);
+                checks++;
+                if (dist <= worst) {
+                    heap.offer(row, dist);
+                }
 
-        double distance = target.distance(node.point);
-        if (pq.size() < k) {
-            pq.offer(node.point);
-        } else if (distance < target.distance(pq.peek())) {
-            pq.poll();
-            pq.offer(node.point);
+                int axis = splitAxis[node];
+                double delta = query[axis] - data.feature(row, axis);
+                double farBound = Math.max(bound, kernel.axisSquared(axis, delta));
+                if (delta < 0) {
+                    if (node + 1 < hi && farBound <= heap.worst()) {
+                        branches.push(node + 1, hi, farBound);
+                    }
+                    hi = node;
+                } else {
+                    if (lo < node && farBound <= heap.worst()) {
+                        branches.push(lo, node, farBound);
+                    }
+                    lo = node + 1;
+                }
+            }
         }
+        return heap.drainSorted(outIds, outDists);
+    }
 
-        int axis = depth % dimensions;
-        KDNode near = target.features[axis] < node.point.features[axis] ? node.left : node.right;
-        KDNode far = (near == node.left) ? node.right : node.left;
+    private void search(double[] query, int lo, int hi, NeighborHeap heap) {
+        if (lo >= hi) return;
 
-        kNearestNeighbors(near, target, k, depth + 1, pq);
+        int node = (lo + hi) >>> 1;
+        int row = ids[node];
+        double worst = heap.worst();
+        double dist = data.squaredDistance(query, row, kernel, worst);
+        if (dist <= worst) {
+            heap.offer(row, dist);
+        }
 
-        if (pq.size() < k || Math.abs(target.features[axis] - node.point.features[axis]) < target.distance(pq.peek())) {
-            kNearestNeighbors(far, target, k, depth + 1, pq);
+        int axis = splitAxis[node];
+        double delta = query[axis] - data.feature(row, axis);
+        double planeDist = kernel.axisSquared(axis, delta);
+        if (delta < 0) {
+            search(query, lo, node, heap);
+            // A parità di distanza dal piano va comunque visitato: serve per
+            // lo spareggio sugli indici
+            if (planeDist <= heap.worst()) {
+                search(query, node + 1, hi, heap);
+            }
+        } else {
+            search(query, node + 1, hi, heap);
+            if (planeDist <= heap.worst()) {
+                search(query, lo, node, heap);
+            }
         }
     }
-}
\ No newline at end of file
+}
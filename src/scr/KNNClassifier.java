@@ -2,12 +2,55 @@ package scr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class KNNClassifier {
-    private List<Sample> trainingData;
-    private KDTree kdtree;
+
+    // Motori di ricerca dei vicini disponibili: danno gli stessi risultati,
+    // la scelta dipende solo dalle prestazioni sul dataset
+    public enum SearchEngine {
+        KD_TREE, // KDTree: conviene con dataset grandi
+        VECTOR_SCAN // VectorScanSearch: scansione SIMD, richiede jdk.incubator.vector
+    }
+
+    // Come combinare i target dei vicini: ogni vicino pesa w nella media di
+    // accelerazione, frenata e sterzata e nel voto della marcia
+    public enum Aggregation {
+        UNIFORM, // w = 1
+        INVERSE_DISTANCE, // w = 1 / (d + INVERSE_DISTANCE_EPSILON)
+        GAUSSIAN // w = exp(-(d^2 - d0^2) / (2 h^2)), d0 = distanza del più vicino
+    }
+
+    private Dataset trainingData;
+    private NeighborSearch search;
     private int k;
+    // Limite di punti valutati per query (ricerca approssimata), 0 = esatta
+    private volatile int maxChecks = 0;
+    private volatile Aggregation aggregation = Aggregation.UNIFORM;
+    // Larghezza h del kernel gaussiano, nello spazio delle feature normalizzate
+    private volatile double bandwidth = DEFAULT_BANDWIDTH;
+    // Non null dopo enableOnlineLearning: contiene anche i campioni aggiunti
+    private IncrementalSearch online;
+    // Buffer di addSample (un solo thread scrittore alla volta)
+    private double[] addFeatures;
+    private double[] addTargets;
+
+    // Spazio di lavoro riutilizzato a ogni predizione (niente garbage per query).
+    // predict() usa quello del thread chiamante, così lo stesso classificatore
+    // può servire più auto in parallelo; predictBatch() dà a ogni task il proprio.
+    private ThreadLocal<QueryBuffers> buffers;
+
+    // Righe per task sotto le quali predictBatch non divide più il lavoro
+    private static final int BATCH_THRESHOLD = 256;
+    private static final double DEFAULT_BANDWIDTH = 0.05;
+    // Evita la divisione per zero con vicini alla stessa posizione della query
+    private static final double INVERSE_DISTANCE_EPSILON = 1e-6;
+    // Marce da -1 (retromarcia) a 6: un bucket ciascuna nel voto
+    private static final int MIN_GEAR = -1;
+    private static final int GEAR_BUCKETS = 8;
     private static final String LOG_FILE = "log_predizioni.csv";
+    private PredictionLogger logger;
 
     // Flag per sapere se ho scritto intestazione su log
     private boolean logHeaderWritten = false;
@@ -27,128 +70,478 @@ public class KNNClassifier {
     private double[] targetMaxs;
 
     public KNNClassifier(String filename, int k) {
-        this.trainingData = new ArrayList<>();
-        this.k = k;
-
-        List<Sample> rawSamples = readRawSamples(filename);
+        this(filename, k, DistanceKernel.EUCLIDEAN);
+    }
 
-        if (rawSamples.isEmpty()) {
-            throw new RuntimeException("Dataset vuoto!");
-        }
-        //normalizzazione
-       computeTargetMinMax(rawSamples);
-       normalizeSamples(rawSamples);
+    // Come sopra, ma con una distanza a scelta (ad esempio pesata per feature)
+    public KNNClassifier(String filename, int k, DistanceKernel kernel) {
+        this(filename, k, kernel, SearchEngine.KD_TREE);
+    }
 
-        this.trainingData = rawSamples;
-        this.kdtree = new KDTree(trainingData);
+    public KNNClassifier(String filename, int k, DistanceKernel kernel, SearchEngine engine) {
+        this(filename, k, kernel, engine, Dataset.Storage.DOUBLE);
+    }
 
+    // storage sceglie come tenere in memoria i campioni (vedi Dataset)
+    public KNNClassifier(String filename, int k, DistanceKernel kernel, SearchEngine engine,
+            Dataset.Storage storage) {
+        this(readRawDataset(filename, storage), false, k, kernel, engine);
     }
 
     // Costruttore che accetta direttamente i dati di addestramento
     // già normalizzati e le etichette
     // (utilizzato per testare il classificatore con dati già pronti)
+    // La lista viene normalizzata sul posto
     public KNNClassifier(List<Sample> trainingData, int k) {
-        this.k = k;
+        this(trainingData, k, DistanceKernel.EUCLIDEAN);
+    }
+
+    public KNNClassifier(List<Sample> trainingData, int k, DistanceKernel kernel) {
+        this(trainingData, k, kernel, SearchEngine.KD_TREE);
+    }
+
+    public KNNClassifier(List<Sample> trainingData, int k, DistanceKernel kernel, SearchEngine engine) {
+        this(Dataset.of(trainingData), false, k, kernel, engine);
         //NORMALIZZAZIONE
-        computeTargetMinMax(trainingData);
         normalizeSamples(trainingData);
+    }
 
-        this.trainingData = new ArrayList<>(trainingData);
-        this.kdtree = new KDTree(this.trainingData);
+    // Dati grezzi in un Dataset: ne viene fatta una copia normalizzata con lo
+    // stesso storage, l'originale non cambia
+    public KNNClassifier(Dataset rawData, int k) {
+        this(rawData, k, DistanceKernel.EUCLIDEAN, SearchEngine.KD_TREE);
     }
 
-    private List<Sample> readRawSamples(String filename) {
-        List<Sample> rawSamples = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            boolean first = true;
-            while ((line = reader.readLine()) != null) {
-                if (first) {
-                    first = false; // salta intestazione
-                    continue;
-                }
-                rawSamples.add(new Sample(line));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    public KNNClassifier(Dataset rawData, int k, DistanceKernel kernel, SearchEngine engine) {
+        this(rawData, true, k, kernel, engine);
+    }
+
+    // copy = false quando il dataset grezzo è stato creato apposta e si può
+    // normalizzare sul posto
+    private KNNClassifier(Dataset rawData, boolean copy, int k, DistanceKernel kernel, SearchEngine engine) {
+        this.k = k;
+        //NORMALIZZAZIONE
+        computeTargetMinMax(rawData);
+        this.trainingData = copy ? rawData.copy() : rawData;
+        normalizeDataset(this.trainingData);
+
+        this.search = buildSearch(trainingData, kernel, engine);
+        initBuffers();
+    }
+
+    // Costruttore usato da ModelSnapshot: dati già normalizzati, parametri di
+    // normalizzazione e motore di ricerca già pronti, niente da ricalcolare
+    KNNClassifier(Dataset normalizedData, double[] targetMins, double[] targetMaxs,
+            NeighborSearch search, int k) {
+        this.k = k;
+        this.trainingData = normalizedData;
+        this.targetMins = targetMins;
+        this.targetMaxs = targetMaxs;
+        this.search = search;
+        initBuffers();
+    }
+
+    // Carica un modello salvato con ModelSnapshot (vedi ModelSnapshot.main)
+    public static KNNClassifier load(String snapshotPath, int k) throws IOException {
+        return ModelSnapshot.read(snapshotPath, k);
+    }
+
+    // Salva dati normalizzati, parametri e albero in formato binario
+    public void save(String snapshotPath) throws IOException {
+        ModelSnapshot.write(this, snapshotPath);
+    }
+
+    // Con l'apprendimento online comprendono anche i campioni aggiunti
+    Dataset getTrainingData() {
+        return online != null ? online.dataset() : trainingData;
+    }
+
+    NeighborSearch getSearch() {
+        if (online != null) {
+            return online.pendingRows() == 0 ? online.consolidatedSearch() : online;
         }
-        return rawSamples;
+        return search;
     }
 
-    private List<Sample> findKNearest(Sample testPoint) {
-        return kdtree.kNearestNeighbors(testPoint, k);
+    double[] getTargetMins() {
+        return targetMins;
     }
 
-    public double[] predict(Sample testPoint) {
-        double[] allFeatures = testPoint.features;
-        //NORMALIZZAZIONE
-        double[] normalized = normalizeFeatures(testPoint.features.clone());
-        testPoint.features = normalized;
+    double[] getTargetMaxs() {
+        return targetMaxs;
+    }
 
-        List<Sample> neighbors = findKNearest(testPoint);
+    private static NeighborSearch buildSearch(Dataset samples, DistanceKernel kernel, SearchEngine engine) {
+        switch (engine) {
+            case VECTOR_SCAN:
+                return new VectorScanSearch(samples, kernel);
+            case KD_TREE:
+            default:
+                return new KDTree(samples, kernel);
+        }
+    }
 
-        double[] result = new double[4]; // accelerazione, frenata, sterzata, marcia
+    private void initBuffers() {
+        buffers = ThreadLocal.withInitial(() -> new QueryBuffers(k));
+        logger = new PredictionLogger(LOG_FILE, trainingData, k, PredictionLogger.Level.FULL);
+    }
 
-        // Somma i target dei k vicini
-        // (escludo l'ultimo target che è il gear)
-        for (Sample s : neighbors) {
-            for (int i = 0; i < (result.length - 1); i++) {
-                result[i] += s.targets[i];
-            }
+    /**
+     * Permette di aggiungere campioni con addSample mentre il modello è in
+     * uso. I nuovi campioni vengono cercati a forza bruta finché non sono
+     * almeno rebuildThreshold, poi un thread in background ricostruisce il
+     * motore di ricerca e lo sostituisce senza fermare le predizioni (vedi
+     * IncrementalSearch). Va chiamato prima di condividere il classificatore
+     * tra più thread.
+     */
+    public void enableOnlineLearning(int rebuildThreshold) {
+        if (online != null) {
+            return;
         }
+        SearchEngine engine = search instanceof VectorScanSearch ? SearchEngine.VECTOR_SCAN : SearchEngine.KD_TREE;
+        DistanceKernel kernel = search.kernel();
+        online = new IncrementalSearch(trainingData, search, data -> buildSearch(data, kernel, engine),
+                rebuildThreshold);
+        search = online;
+        addFeatures = new double[featureNames.length];
+        addTargets = new double[trainingData.targetCount()];
+        logger.setRows(online);
+    }
 
-        // Media dei primi 3 target
-        for (int i = 0; i < (result.length - 1); i++) {
-            result[i] /= neighbors.size();
+    /**
+     * Aggiunge un campione (features e target non normalizzati, come nel CSV)
+     * al modello in uso; vale dalla predizione successiva. I target vengono
+     * normalizzati con minimi e massimi del dataset iniziale. Non blocca e,
+     * salvo quando il buffer dei nuovi campioni cresce, non alloca. Un solo
+     * thread alla volta può aggiungere campioni.
+     */
+    public void addSample(double[] rawFeatures, double[] rawTargets) {
+        if (online == null) {
+            throw new IllegalStateException("Apprendimento online non attivo (enableOnlineLearning)");
         }
+        normalizeFeatures(rawFeatures, addFeatures);
+        normalizeTargets(rawTargets, addTargets);
+        online.add(addFeatures, addTargets);
+    }
 
-        // per gear, prendo il valore medio (mediana)
-        List<Integer> gears = new ArrayList<>();
-        for (Sample s : neighbors) { // per ogni sample vicino
-            gears.add((int) s.targets[s.targets.length - 1]); // estraggo il gear come valore intero
+    // Campioni aggiunti con addSample non ancora nel motore di ricerca principale
+    public int getPendingSamples() {
+        return online != null ? online.pendingRows() : 0;
+    }
+
+    /**
+     * Passa alla ricerca approssimata best-bin-first: ogni query valuta al
+     * massimo maxChecks punti del KDTree, a scapito del richiamo (vedi
+     * KNNTester per misurare richiamo ed errore). 0 torna alla ricerca
+     * esatta. Con VECTOR_SCAN la ricerca resta esatta.
+     */
+    public void setMaxChecks(int maxChecks) {
+        this.maxChecks = Math.max(0, maxChecks);
+    }
+
+    public int getMaxChecks() {
+        return maxChecks;
+    }
+
+    /**
+     * Sceglie come combinare i vicini (vedi Aggregation). I pesi usano le
+     * distanze già calcolate dalla ricerca, quindi non costano altre
+     * visite; con pesi migliori spesso basta un k più piccolo.
+     */
+    public void setAggregation(Aggregation aggregation) {
+        this.aggregation = aggregation;
+    }
+
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    // Larghezza h del kernel GAUSSIAN (feature normalizzate tra 0 e 1)
+    public void setBandwidth(double bandwidth) {
+        if (!(bandwidth > 0)) {
+            throw new IllegalArgumentException("La larghezza del kernel deve essere > 0: " + bandwidth);
+        }
+        this.bandwidth = bandwidth;
+    }
+
+    public double getBandwidth() {
+        return bandwidth;
+    }
+
+    // Livello di dettaglio del log delle predizioni (OFF per disattivarlo)
+    public void setLogLevel(PredictionLogger.Level level) {
+        logger.setLevel(level);
+    }
+
+    // Logga una predizione ogni n
+    public void setLogSampling(int everyN) {
+        logger.setSampleEvery(everyN);
+    }
+
+    // Voci di log scartate perché il writer non teneva il passo
+    public long getDroppedLogEntries() {
+        return logger.getDropped();
+    }
+
+    // Svuota il log su disco e ferma i thread di scrittura e di ricostruzione
+    public void close() {
+        logger.close();
+        if (online != null) {
+            online.close();
         }
-        gears.sort(null); // ordino i gear
-        // Prendo il valore mediano
-        // Se il numero di gear è dispari, prendo il valore centrale
-        // Se è pari, prendo il valore più vicino al centro
-        int medianIndex = (gears.size() - 1) / 2;
-        result[result.length - 1] = gears.get(medianIndex); // attribuisco il valore mediano al risultato
+    }
+
+    // Buffer di lavoro di una singola query
+    private static final class QueryBuffers {
+        final NeighborHeap heap;
+        final int[] neighborIds;
+        final double[] neighborDists;
+        final double[] query;
+        final double[] weights;
+        final double[] gearVotes;
+        final double[] result;
+        final BranchQueue branches;
+
+        QueryBuffers(int k) {
+            heap = new NeighborHeap(k);
+            branches = new BranchQueue(256);
+            neighborIds = new int[k];
+            neighborDists = new double[k];
+            query = new double[featureNames.length];
+            weights = new double[k];
+            gearVotes = new double[GEAR_BUCKETS];
+            result = new double[4];
+        }
+    }
+
+    // Legge le colonne featureNames e i 4 target dal CSV (vedi DatasetLoader)
+    private static Dataset readRawDataset(String filename, Dataset.Storage storage) {
+        DatasetLoader.Table table;
+        try {
+            table = DatasetLoader.load(filename, featureNames, 4);
+        } catch (IOException e) {
+            e.printStackTrace();
+            table = null;
+        }
+        if (table == null || table.rows == 0) {
+            throw new RuntimeException("Dataset vuoto!");
+        }
+        return Dataset.of(table, storage);
+    }
+
+    // Cerca i k vicini del punto (già normalizzato) e restituisce quanti ne ha trovati;
+    // id e distanze al quadrato finiscono nei buffer passati
+    private int findKNearest(double[] normalizedFeatures, QueryBuffers b) {
+        int checks = maxChecks;
+        if (checks > 0) {
+            return search.kNearestNeighbors(normalizedFeatures, k, checks, b.heap, b.branches,
+                    b.neighborIds, b.neighborDists);
+        }
+        return search.kNearestNeighbors(normalizedFeatures, k, b.heap, b.neighborIds, b.neighborDists);
+    }
+
+    // Id dei k vicini di un campione non normalizzato, con la ricerca
+    // corrente (esatta o approssimata); usato da KNNTester per il richiamo
+    int neighbors(double[] rawFeatures, int[] outIds) {
+        QueryBuffers b = buffers.get();
+        normalizeFeatures(rawFeatures, b.query);
+        int count = findKNearest(b.query, b);
+        System.arraycopy(b.neighborIds, 0, outIds, 0, count);
+        return count;
+    }
+
+    public double[] predict(Sample testPoint) {
+        double[] allFeatures = testPoint.features;
+
+        QueryBuffers b = buffers.get();
+        double[] result = new double[4]; // accelerazione, frenata, sterzata, marcia
+        int count = predictNormalized(allFeatures, b, result);
 
         //NORMALIZZAZIONE
         double[] denormResult = denormalizeTargets(result);
 
         // Logga sia normalizzati che denormalizzati
-        logPrediction(allFeatures, result, neighbors);
+        // (in coda al logger asincrono: qui non si tocca il disco)
+        logger.log(allFeatures, result, b.neighborIds, count);
         //NORMALIZZAZIONE
         return denormResult;
        //return result; 
     }
 
-    // debrah dnsiajifd
-    private synchronized void logPrediction(double[] inputFeatures, double[] prediction, List<Sample> neighbors) {
-    try (PrintWriter writer = new PrintWriter(new FileWriter(LOG_FILE, true))) {
+    /**
+     * Predice in parallelo un'intera matrice di feature (una riga per
+     * campione, valori non normalizzati) e restituisce una riga di azioni
+     * denormalizzate per ogni campione. Il lavoro è diviso con fork/join sul
+     * common pool; l'albero è condiviso in sola lettura e ogni task usa i
+     * propri buffer. Le predizioni del batch non vengono loggate.
+     */
+    public double[][] predictBatch(double[][] features) {
+        double[][] results = new double[features.length][];
+        ForkJoinPool.commonPool().invoke(new BatchTask(features, results, 0, features.length));
+        return results;
+    }
 
-        writer.println("Sample:");
-        writer.println("  input:     " + Arrays.toString(inputFeatures));
-        writer.println("  prediction:" + Arrays.toString(prediction));
-        writer.println();
+    private final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        for (int i = 0; i < neighbors.size(); i++) {
-            Sample neighbor = neighbors.get(i);
-            writer.println("Vicino " + (i + 1) + ":");
-            writer.println("  features: " + Arrays.toString(neighbor.features));
-            writer.println("  target:   " + Arrays.toString(neighbor.targets));
-            writer.println();
+        private final double[][] features;
+        private final double[][] results;
+        private final int from, to;
+
+        BatchTask(double[][] features, double[][] results, int from, int to) {
+            this.features = features;
+            this.results = results;
+            this.from = from;
+            this.to = to;
         }
 
-        writer.println("--------------------------------------------------");
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                QueryBuffers b = new QueryBuffers(k);
+                for (int i = from; i < to; i++) {
+                    double[] result = new double[4];
+                    predictNormalized(features[i], b, result);
+                    results[i] = denormalizeTargets(result);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(features, results, from, mid),
+                    new BatchTask(features, results, mid, to));
+        }
+    }
 
-    } catch (IOException e) {
-        e.printStackTrace();
+    // Calcola la predizione normalizzata di un campione scrivendola in result;
+    // restituisce il numero di vicini, i cui id restano nei buffer
+    private int predictNormalized(double[] rawFeatures, QueryBuffers b, double[] result) {
+        //NORMALIZZAZIONE
+        normalizeFeatures(rawFeatures, b.query);
+
+        int count = findKNearest(b.query, b);
+        aggregate(b, count, result);
+        return count;
     }
-}
 
+    /*
+     * Combina i target dei primi count vicini nei buffer (già ordinati per
+     * distanza) nella predizione normalizzata result: media pesata dei primi
+     * 3 target e, per la marcia, voto pesato su un istogramma con un bucket
+     * per marcia. Vince il bucket con il peso maggiore, a parità quello del
+     * vicino più vicino; la marcia predetta è il target di quel vicino.
+     * Niente allocazioni: pesi e istogramma stanno nei buffer.
+     */
+    private void aggregate(QueryBuffers b, int count, double[] result) {
+        Arrays.fill(result, 0);
+        double[] weights = b.weights;
+        double[] dists = b.neighborDists;
+        switch (aggregation) {
+            case INVERSE_DISTANCE:
+                for (int n = 0; n < count; n++) {
+                    weights[n] = 1 / (Math.sqrt(dists[n]) + INVERSE_DISTANCE_EPSILON);
+                }
+                break;
+            case GAUSSIAN:
+                // Relativi al più vicino, che pesa 1: niente underflow a zero
+                double scale = -1 / (2 * bandwidth * bandwidth);
+                for (int n = 0; n < count; n++) {
+                    weights[n] = Math.exp((dists[n] - dists[0]) * scale);
+                }
+                break;
+            case UNIFORM:
+            default:
+                Arrays.fill(weights, 0, count, 1);
+        }
+
+        // Media pesata dei primi 3 target
+        // (escludo l'ultimo target che è il gear)
+        int gearTarget = result.length - 1;
+        double totalWeight = 0;
+        for (int n = 0; n < count; n++) {
+            int row = b.neighborIds[n];
+            for (int i = 0; i < gearTarget; i++) {
+                result[i] += weights[n] * target(row, i);
+            }
+            totalWeight += weights[n];
+        }
+        for (int i = 0; i < gearTarget; i++) {
+            result[i] /= totalWeight;
+        }
 
+        // Voto della marcia (denormalizzata, per trovare il bucket)
+        double[] votes = b.gearVotes;
+        Arrays.fill(votes, 0);
+        double best = 0;
+        for (int n = 0; n < count; n++) {
+            double v = votes[gearBucket(target(b.neighborIds[n], gearTarget))] += weights[n];
+            if (v > best) {
+                best = v;
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            double gear = target(b.neighborIds[n], gearTarget);
+            if (votes[gearBucket(gear)] == best) {
+                result[gearTarget] = gear;
+                break;
+            }
+        }
+    }
+
+    // Bucket dell'istogramma per una marcia normalizzata
+    private int gearBucket(double normalizedGear) {
+        int last = targetMins.length - 1;
+        long gear = Math.round(normalizedGear * (targetMaxs[last] - targetMins[last]) + targetMins[last]);
+        return (int) Math.max(0, Math.min(GEAR_BUCKETS - 1, gear - MIN_GEAR));
+    }
+
+    /**
+     * Valutazione leave-one-out (KNNTester): cerca i vicini della riga row
+     * del dataset di addestramento escludendo la riga stessa (ne chiede k e
+     * toglie row, o l'ultimo se row non c'è per via di duplicati a distanza
+     * zero) e scrive in predictions[j] la predizione denormalizzata con i
+     * primi j + 1 vicini. Una sola ricerca dà quindi il risultato per tutti
+     * i k fino a k - 1. Restituisce il numero di predizioni scritte.
+     *
+     * Il risultato è quello di un modello riaddestrato senza la riga, a meno
+     * degli arrotondamenti: le feature sono normalizzate con le costanti
+     * featureMaxValues e non con statistiche del dataset, mentre la
+     * normalizzazione dei target è affine e viene invertita prima
+     * dell'uscita (anche il bucket della marcia usa il valore denormalizzato).
+     */
+    int leaveOneOut(int row, double[][] predictions) {
+        QueryBuffers b = buffers.get();
+        for (int i = 0; i < b.query.length; i++) {
+            b.query[i] = online != null ? online.feature(row, i) : trainingData.feature(row, i);
+        }
+        int count = findKNearest(b.query, b);
+        if (count == 0) {
+            return 0;
+        }
+
+        int[] ids = b.neighborIds;
+        int self = 0;
+        while (self < count - 1 && ids[self] != row) {
+            self++;
+        }
+        System.arraycopy(ids, self + 1, ids, self, count - self - 1);
+        System.arraycopy(b.neighborDists, self + 1, b.neighborDists, self, count - self - 1);
+        count--;
+
+        double[] result = b.result;
+        for (int j = 0; j < count; j++) {
+            aggregate(b, j + 1, result);
+            double[] out = predictions[j];
+            for (int t = 0; t < result.length; t++) {
+                out[t] = result[t] * (targetMaxs[t] - targetMins[t]) + targetMins[t];
+            }
+        }
+        return count;
+    }
+
+    // Target di un vicino: i campioni aggiunti online non sono in trainingData
+    private double target(int row, int t) {
+        return online != null ? online.target(row, t) : trainingData.target(row, t);
+    }
 
 /*
     private synchronized void logPrediction(double[] originalFeatures, double[] normalizedFeatures,
@@ -178,8 +571,8 @@ public class KNNClassifier {
 */
 
     // Calcola minimi e massimi per i target
-    private void computeTargetMinMax(List<Sample> samples) {
-        int numTargets = samples.get(0).targets.length; // Numero di target (accelerazione, frenata, sterzata, marcia)
+    private void computeTargetMinMax(Dataset samples) {
+        int numTargets = samples.targetCount(); // Numero di target (accelerazione, frenata, sterzata, marcia)
 
         targetMins = new double[numTargets];
         targetMaxs = new double[numTargets];
@@ -187,9 +580,9 @@ public class KNNClassifier {
         Arrays.fill(targetMins, Double.POSITIVE_INFINITY); // Inizializza i minimi a infinito
         Arrays.fill(targetMaxs, Double.NEGATIVE_INFINITY);
 
-        for (Sample s : samples) {
+        for (int r = 0; r < samples.size(); r++) {
             for (int i = 0; i < numTargets; i++) {
-                double val = s.targets[i];
+                double val = samples.target(r, i);
                 if (val < targetMins[i])
                     targetMins[i] = val;
                 if (val > targetMaxs[i])
@@ -207,14 +600,39 @@ public class KNNClassifier {
         }
     }
 
+    // Come normalizeSamples, sulle righe di un Dataset
+    private void normalizeDataset(Dataset data) {
+        double[] row = new double[data.dimensions()];
+        double[] normalized = new double[data.dimensions()];
+        double[] targets = new double[data.targetCount()];
+        for (int r = 0; r < data.size(); r++) {
+            data.copyFeatures(r, row, 0);
+            normalizeFeatures(row, normalized);
+            for (int d = 0; d < normalized.length; d++) {
+                data.setFeature(r, d, normalized[d]);
+            }
+            for (int t = 0; t < targets.length; t++) {
+                targets[t] = data.target(r, t);
+            }
+            double[] normTargets = normalizeTargets(targets);
+            for (int t = 0; t < targets.length; t++) {
+                data.setTarget(r, t, normTargets[t]);
+            }
+        }
+    }
+
     // Normalizza le features (feature / xmax)
     public double[] normalizeFeatures(double[] features) {
+        return normalizeFeatures(features, new double[features.length]);
+    }
+
+    // Normalizza le features scrivendo nel buffer passato (usato nel percorso di predizione)
+    private double[] normalizeFeatures(double[] features, double[] normalized) {
         if (features.length != featureNames.length) {
             throw new IllegalArgumentException("Mismatch: features.length = " + features.length
                     + " ma featureNames.length = " + featureNames.length);
         }
 
-        double[] normalized = new double[features.length];
         for (int i = 0; i < features.length; i++) {
             if (featureMaxValues[i] == Math.PI) { // Normalizza l'angolo tra -pi e pi
                 normalized[i] = (features[i] + Math.PI) / (2 * Math.PI);
@@ -231,7 +649,10 @@ public class KNNClassifier {
 
     // Normalizza i target
     public double[] normalizeTargets(double[] targets) {
-        double[] normalized = new double[targets.length];
+        return normalizeTargets(targets, new double[targets.length]);
+    }
+
+    private double[] normalizeTargets(double[] targets, double[] normalized) {
         for (int i = 0; i < targets.length; i++) {
             if (targetMaxs[i] == targetMins[i]) {
                 normalized[i] = 0; // Se min == max, il target è costante
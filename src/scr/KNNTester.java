@@ -2,32 +2,95 @@ package scr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class KNNTester {
 
-    private static final String DATASET_PATH = "dataset2589101316_10ms.csv";
+    // Dataset usato da SimpleDriver
+    static final String DATASET_PATH = "dataset_50_destra_sinistra_centro.csv";
     private static final String OUTPUT_LOG = "predizioni_test.csv";
+    // Righe per task sotto le quali la valutazione leave-one-out non divide più il lavoro
+    private static final int LOO_THRESHOLD = 512;
 
+    /**
+     * @param args opzioni nella forma nome:valore
+     *             - file:percorso dataset CSV (predefinito DATASET_PATH)
+     *             - k:N numero di vicini (predefinito 20; vedi KNNTuner per
+     *               sceglierlo con la cross-validation)
+     *             - maxChecks:N,N,... dopo il test esatto confronta la ricerca
+     *               approssimata con ciascun limite di punti valutati:
+     *               richiamo@k rispetto all'albero esatto, errore quadratico
+     *               medio e latenza per query
+     *             - aggregation:uniform|inverse_distance|gaussian come
+     *               combinare i vicini (predefinito uniform, vedi
+     *               KNNClassifier.Aggregation)
+     *             - bandwidth:H larghezza del kernel gaussiano
+     *             - loo:N al posto del test 80/20 valuta tutto il dataset
+     *               con il leave-one-out per ogni k da 1 a N, con un solo
+     *               albero e una sola ricerca per riga
+     */
     public static void main(String[] args) {
         int k = 20;
         double testRatio = 0.2;
+        String datasetPath = DATASET_PATH;
+        int[] budgets = new int[0];
+        int looMaxK = 0;
+        KNNClassifier.Aggregation aggregation = KNNClassifier.Aggregation.UNIFORM;
+        double bandwidth = 0;
+        for (String arg : args) {
+            if (arg.startsWith("file:")) {
+                datasetPath = arg.substring("file:".length());
+            } else if (arg.startsWith("k:")) {
+                k = Integer.parseInt(arg.substring("k:".length()).trim());
+            } else if (arg.startsWith("aggregation:")) {
+                aggregation = KNNClassifier.Aggregation.valueOf(
+                        arg.substring("aggregation:".length()).trim().toUpperCase(Locale.ROOT));
+            } else if (arg.startsWith("bandwidth:")) {
+                bandwidth = Double.parseDouble(arg.substring("bandwidth:".length()).trim());
+            } else if (arg.startsWith("loo:")) {
+                looMaxK = Integer.parseInt(arg.substring("loo:".length()).trim());
+            } else if (arg.startsWith("maxChecks:")) {
+                String[] values = arg.substring("maxChecks:".length()).split(",");
+                budgets = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    budgets[i] = Integer.parseInt(values[i].trim());
+                }
+            }
+        }
 
         // Caricamento e preparazione del dataset
-        List<Sample> allSamples = readSamples(DATASET_PATH);
-        Collections.shuffle(allSamples, new Random(42));
+        Dataset allSamples = readSamples(datasetPath);
+        if (looMaxK > 0) {
+            leaveOneOut(allSamples, looMaxK, aggregation, bandwidth);
+            return;
+        }
+        List<Integer> order = new ArrayList<>(allSamples.size());
+        for (int i = 0; i < allSamples.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(42));
 
-        // Divisione in set di addestramento e test
+        // Divisione in set di addestramento e test (righe del dataset)
         int testSize = (int) (allSamples.size() * testRatio);
-        List<Sample> testSet = allSamples.subList(0, testSize);
-        List<Sample> trainSet = allSamples.subList(testSize, allSamples.size());
+        int[] testRows = new int[testSize];
+        int[] trainRows = new int[allSamples.size() - testSize];
+        for (int i = 0; i < order.size(); i++) {
+            if (i < testSize)
+                testRows[i] = order.get(i);
+            else
+                trainRows[i - testSize] = order.get(i);
+        }
+        Dataset trainSet = allSamples.subset(trainRows);
 
         // Normalizzazione dei campioni
         KNNClassifier classifier = new KNNClassifier(trainSet, k);
+        configure(classifier, aggregation, bandwidth);
 
         // Test del classificatore
-        System.out.println("Inizio test con K = " + k + " su " + testSet.size() + " campioni...");
+        System.out.println("Inizio test con K = " + k + " su " + testRows.length + " campioni...");
         System.out.println("Dataset di addestramento: " + trainSet.size() + " campioni");
-        System.out.println("Dataset di test: " + testSet.size() + " campioni");
+        System.out.println("Dataset di test: " + testRows.length + " campioni");
         System.out.println("Scrittura log su " + OUTPUT_LOG);
         System.out.println("--------------------------------------------------");
         // Variabili per calcolo dell'errore
@@ -49,18 +112,25 @@ public class KNNTester {
             // intestazione
             writer.println("pred_accel,pred_brake,pred_steer,true_accel,true_brake,true_steer");
 
-            for (Sample s : testSet) {
-                Sample test = new Sample(s.features.clone(), s.targets.clone());
-                double[] prediction = classifier.predict(test);
+            // Predizione dell'intero test set in parallelo
+            double[][] testFeatures = new double[testRows.length][];
+            for (int i = 0; i < testFeatures.length; i++) {
+                testFeatures[i] = allSamples.features(testRows[i]);
+            }
+            double[][] predictions = classifier.predictBatch(testFeatures);
 
-                totalMSE += meanSquaredError(prediction, s.targets);
-                if (matchDiscrete(prediction, s.targets))
+            for (int i = 0; i < predictions.length; i++) {
+                double[] targets = allSamples.targets(testRows[i]);
+                double[] prediction = predictions[i];
+
+                totalMSE += meanSquaredError(prediction, targets);
+                if (matchDiscrete(prediction, targets))
                     correctDiscrete++;
 
                 // log
                 writer.printf(Locale.US, "%.4f,%.4f,%.4f,%.4f,%.4f,%.4f\n",
                         prediction[0], prediction[1], prediction[2],
-                        s.targets[0], s.targets[1], s.targets[2]);
+                        targets[0], targets[1], targets[2]);
 
                 total++;
             }
@@ -79,37 +149,204 @@ public class KNNTester {
         System.out.printf("Errore quadratico medio: %.6f\n", avgMSE);
         System.out.printf("Accuratezza discreta sulle 3 azioni: %.2f%% (%d/%d)\n",
                 discreteAccuracy, correctDiscrete, total);
+
+        if (budgets.length > 0) {
+            compareApproximate(classifier, allSamples, testRows, k, budgets, avgMSE);
+        }
+    }
+
+    /*
+     * Leave-one-out su tutte le righe: l'albero è costruito una volta sul
+     * dataset intero con k = maxK + 1 e per ogni riga si cercano i vicini
+     * escludendo la riga stessa. La lista dei maxK vicini contiene anche
+     * quelle per ogni k più piccolo, quindi una ricerca per riga basta per
+     * tutti i k. Le righe sono divise tra i thread del common pool. Minimi e
+     * massimi dei target sono quelli dell'intero dataset, ma la riga esclusa
+     * non cambia la propria predizione (vedi KNNClassifier.leaveOneOut).
+     */
+    private static void leaveOneOut(Dataset allSamples, int maxK, KNNClassifier.Aggregation aggregation,
+            double bandwidth) {
+        System.out.println("Leave-one-out su " + allSamples.size() + " campioni, K da 1 a " + maxK + "...");
+        long start = System.nanoTime();
+        KNNClassifier classifier = new KNNClassifier(allSamples, maxK + 1);
+        classifier.setLogLevel(PredictionLogger.Level.OFF);
+        configure(classifier, aggregation, bandwidth);
+        long built = System.nanoTime();
+
+        LeaveOneOutTask root = new LeaveOneOutTask(classifier, allSamples, maxK, 0, allSamples.size());
+        ForkJoinPool.commonPool().invoke(root);
+        long done = System.nanoTime();
+        classifier.close();
+
+        System.out.printf(Locale.US, "Albero costruito in %.2f s, valutazione in %.2f s\n", (built - start) / 1e9,
+                (done - built) / 1e9);
+        System.out.println("--------------------------------------------------");
+        System.out.printf(Locale.US, "%4s %12s %12s\n", "K", "MSE", "acc. %");
+        int best = 0;
+        for (int j = 0; j < maxK; j++) {
+            double mse = root.squaredError[j] / root.tested[j];
+            System.out.printf(Locale.US, "%4d %12.6f %12.2f\n", j + 1, mse,
+                    100.0 * root.correct[j] / root.tested[j]);
+            if (mse < root.squaredError[best] / root.tested[best]) {
+                best = j;
+            }
+        }
+        System.out.println("--------------------------------------------------");
+        System.out.println("K con errore quadratico medio minimo: " + (best + 1));
+    }
+
+    // Somma errori e predizioni corrette per ogni k sulle righe [from, to);
+    // i sottotask sommano i propri totali in quelli del padre
+    private static final class LeaveOneOutTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final KNNClassifier classifier;
+        private final Dataset samples;
+        private final int maxK;
+        private final int from, to;
+        final double[] squaredError;
+        final long[] correct;
+        final long[] tested;
+
+        LeaveOneOutTask(KNNClassifier classifier, Dataset samples, int maxK, int from, int to) {
+            this.classifier = classifier;
+            this.samples = samples;
+            this.maxK = maxK;
+            this.from = from;
+            this.to = to;
+            squaredError = new double[maxK];
+            correct = new long[maxK];
+            tested = new long[maxK];
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LOO_THRESHOLD) {
+                double[][] predictions = new double[maxK][4];
+                double[] targets = new double[samples.targetCount()];
+                for (int row = from; row < to; row++) {
+                    for (int t = 0; t < targets.length; t++) {
+                        targets[t] = samples.target(row, t);
+                    }
+                    int count = classifier.leaveOneOut(row, predictions);
+                    for (int j = 0; j < count; j++) {
+                        squaredError[j] += meanSquaredError(predictions[j], targets);
+                        if (matchDiscrete(predictions[j], targets))
+                            correct[j]++;
+                        tested[j]++;
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            LeaveOneOutTask left = new LeaveOneOutTask(classifier, samples, maxK, from, mid);
+            LeaveOneOutTask right = new LeaveOneOutTask(classifier, samples, maxK, mid, to);
+            invokeAll(left, right);
+            for (int j = 0; j < maxK; j++) {
+                squaredError[j] = left.squaredError[j] + right.squaredError[j];
+                correct[j] = left.correct[j] + right.correct[j];
+                tested[j] = left.tested[j] + right.tested[j];
+            }
+        }
+    }
+
+    // Aggregazione dei vicini; bandwidth 0 lascia la larghezza predefinita
+    private static void configure(KNNClassifier classifier, KNNClassifier.Aggregation aggregation,
+            double bandwidth) {
+        classifier.setAggregation(aggregation);
+        if (bandwidth > 0) {
+            classifier.setBandwidth(bandwidth);
+        }
+    }
+
+    // Ricerca approssimata con diversi limiti di punti valutati, confrontata
+    // con quella esatta sugli stessi campioni di test
+    private static void compareApproximate(KNNClassifier classifier, Dataset allSamples, int[] testRows,
+            int k, int[] budgets, double exactMSE) {
+        double[][] testFeatures = new double[testRows.length][];
+        for (int i = 0; i < testRows.length; i++) {
+            testFeatures[i] = allSamples.features(testRows[i]);
+        }
+
+        // Vicini esatti di riferimento, ordinati per il confronto
+        classifier.setMaxChecks(0);
+        int[][] exact = new int[testRows.length][k];
+        int[] counts = new int[testRows.length];
+        for (int i = 0; i < testRows.length; i++) {
+            counts[i] = classifier.neighbors(testFeatures[i], exact[i]);
+            Arrays.sort(exact[i], 0, counts[i]);
+        }
+        double exactMicros = queryMicros(classifier, testFeatures, k);
+
+        System.out.println("--------------------------------------------------");
+        System.out.println("Ricerca approssimata (best-bin-first) rispetto a quella esatta");
+        System.out.printf(Locale.US, "%10s %10s %12s %12s %12s\n", "maxChecks", "recall@" + k, "MSE",
+                "delta MSE", "us/query");
+        System.out.printf(Locale.US, "%10s %10.4f %12.6f %12.6f %12.2f\n", "esatta", 1.0, exactMSE, 0.0,
+                exactMicros);
+
+        int[] found = new int[k];
+        for (int budget : budgets) {
+            classifier.setMaxChecks(budget);
+            long hits = 0;
+            long expected = 0;
+            for (int i = 0; i < testRows.length; i++) {
+                int n = classifier.neighbors(testFeatures[i], found);
+                for (int j = 0; j < n; j++) {
+                    if (Arrays.binarySearch(exact[i], 0, counts[i], found[j]) >= 0) {
+                        hits++;
+                    }
+                }
+                expected += counts[i];
+            }
+            double micros = queryMicros(classifier, testFeatures, k);
+
+            double[][] predictions = classifier.predictBatch(testFeatures);
+            double mse = 0;
+            for (int i = 0; i < predictions.length; i++) {
+                mse += meanSquaredError(predictions[i], allSamples.targets(testRows[i]));
+            }
+            mse /= predictions.length;
+
+            System.out.printf(Locale.US, "%10d %10.4f %12.6f %+12.6f %12.2f\n", budget,
+                    (double) hits / expected, mse, mse - exactMSE, micros);
+        }
+        classifier.setMaxChecks(0);
+    }
+
+    // Tempo medio di una ricerca dei vicini su un thread, dopo un giro di riscaldamento
+    private static double queryMicros(KNNClassifier classifier, double[][] features, int k) {
+        int[] ids = new int[k];
+        for (double[] f : features) {
+            classifier.neighbors(f, ids);
+        }
+        long start = System.nanoTime();
+        for (double[] f : features) {
+            classifier.neighbors(f, ids);
+        }
+        return (System.nanoTime() - start) / 1e3 / features.length;
     }
 
     // Legge i campioni dal file CSV
-    // Ignora la prima riga (intestazione)
-    // e restituisce una lista di oggetti Sample
-    // Ogni Sample contiene le feature e i target
+    // La prima riga (intestazione) serve a scegliere le colonne delle feature
+    // e restituisce un Dataset
+    // Ogni riga contiene le feature e i target
     // (accelerazione, frenata, sterzata)
     // Le feature sono normalizzate tra 0 e 1
     // I target sono i valori reali delle azioni
-    private static List<Sample> readSamples(String filename) {
-        List<Sample> list = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            boolean skipHeader = true;
-            while ((line = reader.readLine()) != null) {
-                if (skipHeader) {
-                    skipHeader = false;
-                    continue;
-                }
-                list.add(new Sample(line));
-            }
+    static Dataset readSamples(String filename) {
+        try {
+            return Dataset.of(DatasetLoader.load(filename, KNNClassifier.featureNames, 4), Dataset.Storage.DOUBLE);
         } catch (IOException e) {
             e.printStackTrace();
+            return Dataset.create(0, KNNClassifier.featureNames.length, 4, Dataset.Storage.DOUBLE);
         }
-        return list;
     }
 
     // Calcola l'errore quadratico medio tra
     // le previsioni e i valori reali
     // delle azioni (accelerazione, frenata, sterzata)
-    private static double meanSquaredError(double[] pred, double[] actual) {
+    static double meanSquaredError(double[] pred, double[] actual) {
         double sum = 0;
         for (int i = 0; i < pred.length; i++) {
             double diff = pred[i] - actual[i];
@@ -124,7 +361,7 @@ public class KNNTester {
     // Restituisce true se le azioni previste
     // corrispondono a quelle reali
     // (considerando le soglie discrete)
-    private static boolean matchDiscrete(double[] pred, double[] actual) {
+    static boolean matchDiscrete(double[] pred, double[] actual) {
         return discretize(pred[0]) == discretize(actual[0]) &&
                 discretize(pred[1]) == discretize(actual[1]) &&
                 discretize(pred[2]) == discretize(actual[2]);
@@ -0,0 +1,499 @@
+package scr;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ricerca della configurazione del KNNClassifier con la cross-validation a
+ * k fold: prova tutte le combinazioni di numero di vicini, sottoinsieme di
+ * feature, pesi della distanza e aggregazione dei vicini e stampa una
+ * classifica con errore quadratico medio, accuratezza discreta
+ * (KNNTester.matchDiscrete) e latenza per predizione.
+ *
+ * Il dataset viene letto una volta sola. Ogni task (un fold con un vettore
+ * di pesi) costruisce il proprio albero sulle righe di addestramento del
+ * fold e lo usa per tutti i valori di k; i task girano in parallelo su un
+ * pool di thread. La latenza non viene presa da questi task, che si
+ * contendono core e cache: finita la cross-validation, ogni configurazione
+ * ripredice il primo fold da sola su un thread, come fa il driver.
+ *
+ * Un sottoinsieme di feature è una distanza con peso zero sulle feature
+ * escluse. Per la prima configurazione della classifica (e per la più
+ * veloce, con minAccuracy:) vengono stampate le opzioni -Dscr.knn.* che la
+ * selezionano in SimpleDriver.
+ *
+ * Uso: java scr.KNNTuner [opzioni nella forma nome:valore]
+ *   file:dataset.csv      dataset (predefinito KNNTester.DATASET_PATH)
+ *   folds:N               numero di fold (predefinito 5)
+ *   k:N,N,...             valori di k (predefinito 1,3,5,10,20)
+ *   features:S,S,...      sottoinsiemi di feature: all, all-Nome-Nome (tutte
+ *                         tranne quelle indicate) o Nome+Nome+...
+ *                         (predefinito all e all-X per ogni feature X)
+ *   weights:W,W,...       pesi: uniform o Nome=peso+Nome=peso, le feature
+ *                         non indicate pesano 1 (predefinito uniform)
+ *   aggregation:A,A,...   aggregazioni da provare: uniform,
+ *                         inverse_distance, gaussian (predefinito uniform)
+ *   bandwidth:H,H,...     larghezze del kernel per gaussian (predefinito 0.05)
+ *   split:shuffle|contiguous  fold da righe mescolate (come KNNTester) o da
+ *                         blocchi contigui, che non mettono nel test frame
+ *                         quasi identici a quelli di addestramento
+ *   seed:N                seme del mescolamento (predefinito 42)
+ *   threads:N             thread del pool (predefinito i core disponibili)
+ *   minAccuracy:P         indica la configurazione più veloce con
+ *                         accuratezza discreta almeno P (percentuale)
+ *   top:N                 righe della classifica da stampare (predefinito 30)
+ */
+public class KNNTuner {
+
+    private static final int DEFAULT_FOLDS = 5;
+    private static final int[] DEFAULT_KS = {1, 3, 5, 10, 20};
+    private static final int DEFAULT_TOP = 30;
+    private static final double DEFAULT_BANDWIDTH = 0.05;
+
+    private static final String[] featureNames = KNNClassifier.featureNames;
+
+    // Distanza da provare: maschera delle feature per i pesi
+    private static final class Metric {
+        final String features;
+        final String weights;
+        final DistanceKernel kernel;
+
+        Metric(String features, String weights, DistanceKernel kernel) {
+            this.features = features;
+            this.weights = weights;
+            this.kernel = kernel;
+        }
+    }
+
+    // Aggregazione da provare (con la sua larghezza se gaussiana)
+    private static final class Mode {
+        final KNNClassifier.Aggregation aggregation;
+        final double bandwidth;
+
+        Mode(KNNClassifier.Aggregation aggregation, double bandwidth) {
+            this.aggregation = aggregation;
+            this.bandwidth = bandwidth;
+        }
+
+        @Override
+        public String toString() {
+            return aggregation == KNNClassifier.Aggregation.GAUSSIAN
+                    ? "gaussian(" + bandwidth + ")"
+                    : aggregation.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Risultati di un fold per tutte le coppie (k, aggregazione) di una distanza
+    // (latency solo nel passaggio di misura dei tempi)
+    private static final class FoldResult {
+        final double[] squaredError;
+        final int[] correct;
+        final LatencyHistogram[] latency;
+        int tested;
+
+        FoldResult(int ks, boolean timed) {
+            squaredError = new double[ks];
+            correct = new int[ks];
+            latency = timed ? new LatencyHistogram[ks] : null;
+            for (int i = 0; timed && i < ks; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    // Riga della classifica: una configurazione sommata su tutti i fold
+    private static final class Score {
+        final Metric metric;
+        final int k;
+        final Mode mode;
+        double squaredError;
+        int correct;
+        int tested;
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Score(Metric metric, int k, Mode mode) {
+            this.metric = metric;
+            this.k = k;
+            this.mode = mode;
+        }
+
+        double mse() {
+            return squaredError / tested;
+        }
+
+        double accuracy() {
+            return 100.0 * correct / tested;
+        }
+
+        // Opzioni della JVM che fanno usare questa configurazione a SimpleDriver
+        String driverOptions() {
+            StringBuilder options = new StringBuilder("-Dscr.knn.k=" + k);
+            options.append(" -Dscr.knn.aggregation=").append(mode.aggregation.name().toLowerCase(Locale.ROOT));
+            if (mode.aggregation == KNNClassifier.Aggregation.GAUSSIAN) {
+                options.append(" -Dscr.knn.bandwidth=").append(mode.bandwidth);
+            }
+            String weights = metric.kernel.toSpec(featureNames);
+            if (!weights.equals("uniform")) {
+                options.append(" -Dscr.knn.weights=").append(weights);
+            }
+            return options.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String datasetPath = KNNTester.DATASET_PATH;
+        int folds = DEFAULT_FOLDS;
+        int[] ks = DEFAULT_KS;
+        String featureSpec = null;
+        String weightSpec = "uniform";
+        String aggregationSpec = "uniform";
+        double[] bandwidths = {DEFAULT_BANDWIDTH};
+        boolean contiguous = false;
+        long seed = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double minAccuracy = -1;
+        int top = DEFAULT_TOP;
+        for (String arg : args) {
+            int colon = arg.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("Opzione non nella forma nome:valore: " + arg);
+            }
+            String name = arg.substring(0, colon);
+            String value = arg.substring(colon + 1).trim();
+            switch (name) {
+                case "file":
+                    datasetPath = value;
+                    break;
+                case "folds":
+                    folds = Integer.parseInt(value);
+                    break;
+                case "k":
+                    ks = parseInts(value);
+                    break;
+                case "features":
+                    featureSpec = value;
+                    break;
+                case "weights":
+                    weightSpec = value;
+                    break;
+                case "aggregation":
+                    aggregationSpec = value;
+                    break;
+                case "bandwidth":
+                    bandwidths = parseDoubles(value);
+                    break;
+                case "split":
+                    contiguous = "contiguous".equals(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "minAccuracy":
+                    minAccuracy = Double.parseDouble(value);
+                    break;
+                case "top":
+                    top = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opzione sconosciuta: " + name);
+            }
+        }
+        if (folds < 2) {
+            throw new IllegalArgumentException("Servono almeno 2 fold: " + folds);
+        }
+        Arrays.sort(ks);
+        List<Metric> metrics = metrics(featureSpec, weightSpec);
+        List<Mode> modes = modes(aggregationSpec, bandwidths);
+
+        Dataset allSamples = KNNTester.readSamples(datasetPath);
+        int[][] testRows = folds(allSamples.size(), folds, contiguous, seed);
+
+        System.out.println("Cross-validation su " + datasetPath + ": " + allSamples.size() + " campioni, "
+                + folds + " fold " + (contiguous ? "contigui" : "mescolati"));
+        int configurations = metrics.size() * ks.length * modes.size();
+        System.out.println(metrics.size() + " distanze x " + ks.length + " valori di k x " + modes.size()
+                + " aggregazioni = " + configurations + " configurazioni, " + metrics.size() * folds
+                + " alberi su " + threads + " thread");
+
+        // Un task per fold e distanza
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "knn-tuner");
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        List<List<Future<FoldResult>>> results = new ArrayList<>();
+        final int[] kValues = ks;
+        final Mode[] modeArray = modes.toArray(new Mode[0]);
+        for (Metric metric : metrics) {
+            List<Future<FoldResult>> perFold = new ArrayList<>();
+            for (int f = 0; f < folds; f++) {
+                int[] test = testRows[f];
+                int[] train = complement(test, allSamples.size());
+                perFold.add(pool.submit(() -> evaluate(allSamples, train, test, metric.kernel, kValues,
+                        modeArray, false)));
+            }
+            results.add(perFold);
+        }
+
+        List<Score> scores = new ArrayList<>();
+        List<Score[]> rows = new ArrayList<>();
+        for (int m = 0; m < metrics.size(); m++) {
+            Score[] row = new Score[ks.length * modeArray.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new Score(metrics.get(m), ks[i / modeArray.length], modeArray[i % modeArray.length]);
+            }
+            for (Future<FoldResult> future : results.get(m)) {
+                FoldResult fold = future.get();
+                for (int i = 0; i < row.length; i++) {
+                    row[i].squaredError += fold.squaredError[i];
+                    row[i].correct += fold.correct[i];
+                    row[i].tested += fold.tested;
+                }
+            }
+            rows.add(row);
+            scores.addAll(Arrays.asList(row));
+        }
+        pool.shutdown();
+        System.out.printf(Locale.US, "Completato in %.1f s\n", (System.nanoTime() - start) / 1e9);
+
+        // Tempi a pool fermo, una configurazione alla volta sul primo fold
+        int[] timedTest = testRows[0];
+        int[] timedTrain = complement(timedTest, allSamples.size());
+        for (int m = 0; m < metrics.size(); m++) {
+            FoldResult timed = evaluate(allSamples, timedTrain, timedTest, metrics.get(m).kernel, ks, modeArray,
+                    true);
+            Score[] row = rows.get(m);
+            for (int i = 0; i < row.length; i++) {
+                row[i].latency.add(timed.latency[i]);
+            }
+        }
+
+        report(scores, top, minAccuracy);
+    }
+
+    /*
+     * Addestra un classificatore sulle righe train con la distanza data e
+     * predice le righe test con ogni k e ogni aggregazione (risultati in
+     * ordine k-major). L'albero è costruito una volta: i
+     * classificatori per gli altri k condividono dati normalizzati, parametri
+     * e motore di ricerca del primo. Con timed registra anche il tempo di
+     * ogni predizione: ha senso solo se nessun altro task sta girando.
+     */
+    private static FoldResult evaluate(Dataset allSamples, int[] train, int[] test, DistanceKernel kernel,
+            int[] ks, Mode[] modes, boolean timed) {
+        KNNClassifier base = new KNNClassifier(allSamples.subset(train), ks[ks.length - 1], kernel,
+                KNNClassifier.SearchEngine.KD_TREE);
+        Sample[] samples = new Sample[test.length];
+        for (int i = 0; i < test.length; i++) {
+            samples[i] = allSamples.sample(test[i]);
+        }
+
+        FoldResult result = new FoldResult(ks.length * modes.length, timed);
+        result.tested = test.length;
+        for (int i = 0; i < ks.length; i++) {
+            KNNClassifier classifier = i == ks.length - 1 ? base
+                    : new KNNClassifier(base.getTrainingData(), base.getTargetMins(), base.getTargetMaxs(),
+                            base.getSearch(), ks[i]);
+            classifier.setLogLevel(PredictionLogger.Level.OFF);
+            for (int m = 0; m < modes.length; m++) {
+                classifier.setAggregation(modes[m].aggregation);
+                classifier.setBandwidth(modes[m].bandwidth);
+                int at = i * modes.length + m;
+                for (Sample sample : samples) {
+                    long t0 = System.nanoTime();
+                    double[] prediction = classifier.predict(sample);
+                    if (timed) {
+                        result.latency[at].record(System.nanoTime() - t0);
+                    }
+                    result.squaredError[at] += KNNTester.meanSquaredError(prediction, sample.targets);
+                    if (KNNTester.matchDiscrete(prediction, sample.targets)) {
+                        result.correct[at]++;
+                    }
+                }
+            }
+            classifier.close();
+        }
+        return result;
+    }
+
+    // Classifica per errore quadratico medio crescente
+    private static void report(List<Score> scores, int top, double minAccuracy) {
+        scores.sort(Comparator.comparingDouble(Score::mse));
+        System.out.println("--------------------------------------------------");
+        System.out.printf(Locale.US, "%4s %4s %-17s %10s %9s %9s %9s  %s\n", "#", "k", "aggregazione",
+                "MSE", "acc. %", "us medi", "us p99", "features / pesi");
+        for (int i = 0; i < Math.min(top, scores.size()); i++) {
+            printScore(i + 1, scores.get(i));
+        }
+        if (!scores.isEmpty()) {
+            System.out.println("Per il driver: " + scores.get(0).driverOptions());
+        }
+
+        if (minAccuracy >= 0) {
+            Score fastest = null;
+            int rank = 0;
+            for (int i = 0; i < scores.size(); i++) {
+                Score s = scores.get(i);
+                if (s.accuracy() >= minAccuracy && (fastest == null || s.latency.mean() < fastest.latency.mean())) {
+                    fastest = s;
+                    rank = i + 1;
+                }
+            }
+            System.out.println("--------------------------------------------------");
+            if (fastest == null) {
+                System.out.printf(Locale.US, "Nessuna configurazione con accuratezza >= %.2f%%\n", minAccuracy);
+            } else {
+                System.out.printf(Locale.US, "Più veloce con accuratezza >= %.2f%%:\n", minAccuracy);
+                printScore(rank, fastest);
+                System.out.println("Per il driver: " + fastest.driverOptions());
+            }
+        }
+    }
+
+    private static void printScore(int rank, Score s) {
+        System.out.printf(Locale.US, "%4d %4d %-17s %10.6f %9.2f %9.2f %9.2f  %s / %s\n", rank, s.k, s.mode, s.mse(),
+                s.accuracy(), s.latency.mean() / 1e3, s.latency.percentile(0.99) / 1e3, s.metric.features,
+                s.metric.weights);
+    }
+
+    // Tutte le combinazioni di sottoinsieme di feature e pesi
+    private static List<Metric> metrics(String featureSpec, String weightSpec) {
+        List<String> subsets = new ArrayList<>();
+        if (featureSpec == null) {
+            subsets.add("all");
+            for (String name : featureNames) {
+                subsets.add("all-" + name);
+            }
+        } else {
+            subsets.addAll(Arrays.asList(featureSpec.split(",")));
+        }
+
+        List<Metric> metrics = new ArrayList<>();
+        for (String subset : subsets) {
+            double[] mask = parseSubset(subset.trim());
+            for (String profile : weightSpec.split(",")) {
+                double[] weights = DistanceKernel.parse(profile, featureNames).getWeights();
+                if (weights == null) {
+                    weights = new double[featureNames.length];
+                    Arrays.fill(weights, 1);
+                }
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] *= mask[i];
+                }
+                // Senza pesi resta la distanza euclidea predefinita del driver
+                DistanceKernel kernel = DistanceKernel.of(weights);
+                metrics.add(new Metric(subset.trim(), profile.trim(), kernel));
+            }
+        }
+        return metrics;
+    }
+
+    // Ogni aggregazione; gaussian una volta per larghezza
+    private static List<Mode> modes(String spec, double[] bandwidths) {
+        List<Mode> modes = new ArrayList<>();
+        for (String name : spec.split(",")) {
+            KNNClassifier.Aggregation aggregation = KNNClassifier.Aggregation.valueOf(
+                    name.trim().toUpperCase(Locale.ROOT));
+            if (aggregation == KNNClassifier.Aggregation.GAUSSIAN) {
+                for (double h : bandwidths) {
+                    modes.add(new Mode(aggregation, h));
+                }
+            } else {
+                modes.add(new Mode(aggregation, DEFAULT_BANDWIDTH));
+            }
+        }
+        return modes;
+    }
+
+    // 1 per le feature incluse, 0 per le escluse
+    private static double[] parseSubset(String spec) {
+        double[] mask = new double[featureNames.length];
+        if (spec.equals("all") || spec.startsWith("all-")) {
+            Arrays.fill(mask, 1);
+            if (spec.length() > "all".length()) {
+                for (String name : spec.substring("all-".length()).split("-")) {
+                    mask[featureIndex(name)] = 0;
+                }
+            }
+            return mask;
+        }
+        for (String name : spec.split("\\+")) {
+            mask[featureIndex(name)] = 1;
+        }
+        return mask;
+    }
+
+    private static int featureIndex(String name) {
+        for (int i = 0; i < featureNames.length; i++) {
+            if (featureNames[i].equals(name.trim())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Feature sconosciuta: " + name + " (valide: "
+                + String.join(", ", featureNames) + ")");
+    }
+
+    private static int[] parseInts(String list) {
+        String[] values = list.split(",");
+        int[] out = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = Integer.parseInt(values[i].trim());
+        }
+        return out;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] values = list.split(",");
+        double[] out = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = Double.parseDouble(values[i].trim());
+        }
+        return out;
+    }
+
+    // Righe di test di ogni fold, ordinate
+    private static int[][] folds(int size, int folds, boolean contiguous, long seed) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        if (!contiguous) {
+            Random random = new Random(seed);
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        int[][] test = new int[folds][];
+        for (int f = 0; f < folds; f++) {
+            int from = (int) ((long) size * f / folds);
+            int to = (int) ((long) size * (f + 1) / folds);
+            test[f] = Arrays.copyOfRange(order, from, to);
+            Arrays.sort(test[f]);
+        }
+        return test;
+    }
+
+    // Righe non di test, in ordine
+    private static int[] complement(int[] sortedTest, int size) {
+        int[] train = new int[size - sortedTest.length];
+        int n = 0;
+        int t = 0;
+        for (int r = 0; r < size; r++) {
+            if (t < sortedTest.length && sortedTest[t] == r) {
+                t++;
+            } else {
+                train[n++] = r;
+            }
+        }
+        return train;
+    }
+}
@@ -9,12 +9,40 @@ public class ManualDriver extends Controller {
 
     // Dichiarazione variabili di stato
     private boolean accel = false, brake = false, left = false, right = false;
-    private boolean recording = false, manual = false, automatic = true;
+    private boolean manual = false, automatic = true;
     private int gear = 0;
     private float currentAccel = 0f, currentBrake = 0f, steering = 0f, clutch = 0f;
-    private long lastSaveTime = 0;
 
-    private static final long MIN_SAVE_INTERVAL_MS = 50;
+    /*
+     * Registrazione: si avvia con '1' e si ferma con '0'. Il file viene aperto
+     * e chiuso dal thread della tastiera; il thread di controllo mette solo i
+     * frame in coda (vedi DemonstrationRecorder). Si configura con:
+     *   -Dscr.demo.format=csv|binary (predefinito csv)
+     *   -Dscr.demo.rate=N frame al secondo, 0 = uno per tick (predefinito 20)
+     *   -Dscr.demo.file=nome (predefinito DEMO_CSV o DEMO_BINARY)
+     *   -Dscr.telemetry.file=nome per registrare anche la telemetria completa
+     *    a ogni tick (vedi TelemetryWriter; predefinito nessuna)
+     *   -Dscr.demo.assist=true guida assistita (DAgger durante la sessione):
+     *    guida il modello KNN condiviso con SimpleDriver finché non si preme
+     *    un tasto di guida; i comandi del pilota in quei momenti sono le
+     *    correzioni, che durante la registrazione finiscono anche nel modello
+     *    e valgono dalla predizione successiva, senza riavviare
+     */
+    private volatile DemonstrationRecorder recorder;
+    private volatile TelemetryWriter telemetry;
+    private static final String DEMO_CSV = "dataset_50_destra_sinistra_centro.csv";
+    private static final String DEMO_BINARY = "dataset_50_destra_sinistra_centro.demo";
+    private static final double DEFAULT_DEMO_RATE_HZ = 20;
+    private static final int ONLINE_REBUILD_THRESHOLD = 2048;
+
+    // Modello a cui passare anche i campioni registrati (apprendimento online),
+    // null se si scrive solo il CSV
+    private KNNClassifier onlineModel;
+    // true se onlineModel è quello condiviso di SimpleDriver (da rilasciare)
+    private boolean sharedModel = false;
+    private final double[] sampleFeatures = new double[KNNClassifier.featureNames.length];
+    private final double[] sampleTargets = new double[4];
+    private final Sample sample = new Sample(sampleFeatures);
 
     final float clutchMax = 0.5f;
     final float clutchDelta = 0.05f;
@@ -58,15 +86,13 @@ public class ManualDriver extends Controller {
 
                     case '1' -> {
                         if (pressed) {
-                            recording = true;
-                            System.out.println("Scrittura attivata");
+                            startRecording();
                         }
                     }
 
                     case '0' -> {
                         if (pressed) {
-                            recording = false;
-                            System.out.println("Scrittura disattivata");
+                            stopRecording();
                         }
                     }
 
@@ -78,74 +104,136 @@ public class ManualDriver extends Controller {
                 }
             }
         });
+
+        if (Boolean.getBoolean("scr.demo.assist")) {
+            setOnlineModel(SimpleDriver.acquireClassifier());
+            sharedModel = true;
+            System.out.println("Guida assistita: il modello guida finché non si usano w/a/s/d");
+        }
     } // <--- Qui chiudo il costruttore ManualDriver
 
+    // Il modello guida quando il pilota non tocca i comandi e i campioni
+    // registrati mentre li tocca vengono aggiunti a model, che li usa dalla
+    // predizione successiva senza ricostruirlo da capo (vedi scr.demo.assist)
+    public void setOnlineModel(KNNClassifier model) {
+        model.enableOnlineLearning(ONLINE_REBUILD_THRESHOLD);
+        this.onlineModel = model;
+    }
+
     @Override
     public Action control(SensorModel sensors) {
         Action action = new Action();
 
         updateState(sensors);
-
-        action.accelerate = currentAccel;
-        action.brake = currentBrake;
-        action.steering = steering;
+        fillFeatures(sensors);
+
+        // Con il modello collegato il pilota interviene solo per correggerlo
+        boolean human = accel || brake || left || right;
+        if (onlineModel != null && !human) {
+            double[] prediction = onlineModel.predict(sample);
+            action.accelerate = prediction[0];
+            action.brake = prediction[1];
+            action.steering = prediction[2];
+        } else {
+            action.accelerate = currentAccel;
+            action.brake = currentBrake;
+            action.steering = steering;
+        }
         action.gear = getGear(sensors);
         action.clutch = clutching(sensors, clutch);
 
-        double speed = sensors.getSpeed();
-        double speedY = sensors.getLateralSpeed();
-        double distanceFromStartLine = sensors.getDistanceFromStartLine(); 
-        double distanceRaced = sensors.getDistanceRaced(); 
-        double damage = sensors.getDamage(); 
-        if (recording) {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastSaveTime >= MIN_SAVE_INTERVAL_MS) {
-                lastSaveTime = currentTime;
-                try {
-                    File file = new File("dataset_50_destra_sinistra_centro.csv");
-                    boolean fileExists = file.exists();
-                    boolean fileIsEmpty = file.length() == 0;
-
-                    try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, true))) {
-                        if (!fileExists || fileIsEmpty) {
-                            bw.write(
-                                    "Track2,Track5,Track8,Track9,Track10,Track13,Track16,TrackPosition,AngleToTrackAxis,Speed,SpeedY,Accelerate,Brake,Steering,Gear\n");
-                        }
-                        double[] trackSensors = sensors.getTrackEdgeSensors();
-                        bw.write(
-                                
-                                trackSensors[2] + "," +
-                               
-                                trackSensors[5] + "," +
-                               
-                                        trackSensors[8] + "," +
-                                        trackSensors[9] + "," +
-                                        trackSensors[10] + "," +
-                                       
-                                        trackSensors[13] + "," +
-                                        
-                                        trackSensors[16] + "," +
-                                        
-                                        sensors.getTrackPosition() + "," +
-                                        sensors.getAngleToTrackAxis() + "," +
-                                        
-                                        speed + "," +
-                                        speedY + "," +
-                                        
-                                        action.accelerate + "," +
-                                        action.brake + "," +
-                                        action.steering + "," +
-                                        action.gear + "\n");
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        TelemetryWriter t = telemetry;
+        if (t != null) {
+            t.write(sensors, action);
+        }
+        // In guida assistita si registrano solo le correzioni: le azioni del
+        // modello rimesse nel modello non insegnerebbero niente
+        DemonstrationRecorder r = recorder;
+        if (r != null && (onlineModel == null || human)) {
+            if (r.record(sampleFeatures, action.accelerate, action.brake, action.steering, action.gear)
+                    && onlineModel != null) {
+                addToModel(action);
             }
         }
 
         return action;
     }
 
+    private synchronized void startRecording() {
+        if (recorder != null || telemetry != null) {
+            return;
+        }
+        DemonstrationRecorder.Format format = "binary".equalsIgnoreCase(System.getProperty("scr.demo.format"))
+                ? DemonstrationRecorder.Format.BINARY
+                : DemonstrationRecorder.Format.CSV;
+        String file = System.getProperty("scr.demo.file",
+                format == DemonstrationRecorder.Format.BINARY ? DEMO_BINARY : DEMO_CSV);
+        double rate = Double.parseDouble(System.getProperty("scr.demo.rate", String.valueOf(DEFAULT_DEMO_RATE_HZ)));
+        try {
+            recorder = new DemonstrationRecorder(file, format, rate);
+            System.out.println("Scrittura attivata su " + file);
+        } catch (IOException e) {
+            System.out.println("Impossibile registrare su " + file + ": " + e.getMessage());
+        }
+        String telemetryFile = System.getProperty("scr.telemetry.file");
+        if (telemetryFile != null) {
+            try {
+                telemetry = new TelemetryWriter(telemetryFile);
+                System.out.println("Telemetria attivata su " + telemetryFile);
+            } catch (IOException e) {
+                System.out.println("Impossibile registrare la telemetria su " + telemetryFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void stopRecording() {
+        TelemetryWriter t = telemetry;
+        if (t != null) {
+            telemetry = null;
+            try {
+                t.close();
+                System.out.println("Telemetria disattivata: " + t.getWritten() + " frame su " + t.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        DemonstrationRecorder r = recorder;
+        if (r == null) {
+            return;
+        }
+        recorder = null;
+        try {
+            r.close();
+            System.out.println("Scrittura disattivata: " + r.getWritten() + " frame su " + r.getPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stesse colonne del dataset
+    private void fillFeatures(SensorModel sensors) {
+        double[] trackSensors = sensors.getTrackEdgeSensors();
+        sampleFeatures[0] = trackSensors[2];
+        sampleFeatures[1] = trackSensors[5];
+        sampleFeatures[2] = trackSensors[8];
+        sampleFeatures[3] = trackSensors[9];
+        sampleFeatures[4] = trackSensors[10];
+        sampleFeatures[5] = trackSensors[13];
+        sampleFeatures[6] = trackSensors[16];
+        sampleFeatures[7] = sensors.getTrackPosition();
+        sampleFeatures[8] = sensors.getAngleToTrackAxis();
+        sampleFeatures[9] = sensors.getSpeed();
+        sampleFeatures[10] = sensors.getLateralSpeed();
+    }
+
+    private void addToModel(Action action) {
+        sampleTargets[0] = action.accelerate;
+        sampleTargets[1] = action.brake;
+        sampleTargets[2] = action.steering;
+        sampleTargets[3] = action.gear;
+        onlineModel.addSample(sampleFeatures, sampleTargets);
+    }
+
     private float clutching(SensorModel sensors, float clutch) {
         float maxClutch = clutchMax;
 
@@ -202,6 +290,12 @@ public class ManualDriver extends Controller {
 
     @Override
     public void shutdown() {
+        stopRecording();
+        if (sharedModel) {
+            sharedModel = false;
+            onlineModel = null;
+            SimpleDriver.releaseClassifier();
+        }
         System.out.println("Shutdown!");
     }
 
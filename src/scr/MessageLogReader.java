@@ -0,0 +1,72 @@
+package scr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Legge un log scritto da MessageRecorder mappandolo in memoria: next()
+ * avanza al messaggio successivo e message() lo espone come vista sul file,
+ * senza copie.
+ */
+public class MessageLogReader {
+
+    private final ByteBuffer data;
+    private final ByteBuffer message;
+    private long timestamp;
+
+    public MessageLogReader(String path) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException(path + " è troppo grande (" + ch.size() + " byte)");
+            }
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (data.remaining() < MessageRecorder.HEADER_BYTES || data.getInt() != MessageRecorder.MAGIC) {
+            throw new IOException(path + " non è un log di messaggi SCR");
+        }
+        int version = data.getInt();
+        if (version != MessageRecorder.VERSION) {
+            throw new IOException("Versione del log non supportata: " + version);
+        }
+        message = data.duplicate();
+        message.limit(0);
+    }
+
+    // Passa al messaggio successivo; false a fine file (o su un record troncato)
+    public boolean next() {
+        if (data.remaining() < MessageRecorder.RECORD_HEADER_BYTES) {
+            return false;
+        }
+        long t = data.getLong();
+        int len = data.getInt();
+        if (len < 0 || len > data.remaining()) {
+            data.position(data.limit());
+            return false;
+        }
+        timestamp = t;
+        message.limit(data.position() + len).position(data.position());
+        data.position(data.position() + len);
+        return true;
+    }
+
+    // Messaggio corrente, tra position e limit; vale fino al prossimo next()
+    public ByteBuffer message() {
+        return message;
+    }
+
+    // Istante di ricezione del messaggio corrente, in ns dall'inizio della registrazione
+    public long timestamp() {
+        return timestamp;
+    }
+
+    // Torna al primo messaggio
+    public void rewind() {
+        data.position(MessageRecorder.HEADER_BYTES);
+        message.limit(0);
+        timestamp = 0;
+    }
+}
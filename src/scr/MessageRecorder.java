@@ -0,0 +1,86 @@
+package scr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Registra i messaggi grezzi ricevuti dal server in un log binario da
+ * rileggere con MessageLogReader (ad esempio da ReplayRunner).
+ *
+ * Layout (little endian):
+ *   int magic, int versione
+ *   per ogni messaggio: long nanosecondi dall'inizio, int lunghezza, byte[lunghezza]
+ *
+ * I record vengono accumulati in un buffer diretto e scritti sul
+ * FileChannel solo quando è pieno, quindi il tick paga una copia di memoria.
+ */
+public class MessageRecorder implements Closeable {
+
+    static final int MAGIC = 0x52524353; // "SCRR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 2 * Integer.BYTES;
+    static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final long start = System.nanoTime();
+    private long count;
+    private boolean failed = false;
+
+    public MessageRecorder(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    // Registra i byte tra position e limit di msg (la posizione non cambia)
+    public void record(ByteBuffer msg) {
+        if (failed) {
+            return;
+        }
+        int len = Math.min(msg.remaining(), BUFFER_BYTES - RECORD_HEADER_BYTES);
+        if (buffer.remaining() < RECORD_HEADER_BYTES + len) {
+            flush();
+        }
+        buffer.putLong(System.nanoTime() - start).putInt(len);
+        int oldLimit = msg.limit();
+        int oldPosition = msg.position();
+        msg.limit(oldPosition + len);
+        buffer.put(msg);
+        msg.limit(oldLimit).position(oldPosition);
+        count++;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            // meglio perdere la registrazione che la gara
+            e.printStackTrace();
+            failed = true;
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!failed) {
+            flush();
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,187 @@
+package scr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Formato binario del modello KNN già pre-elaborato, per avviare il driver
+ * senza rileggere il CSV, rinormalizzare e ricostruire l'albero.
+ *
+ * Layout (little endian):
+ *   int magic, int versione
+ *   int n, int dimensioni, int numero target, int flag
+ *   double[numTarget] minimi target, double[numTarget] massimi target
+ *   double[dimensioni] pesi del kernel (solo se FLAG_WEIGHTED)
+ *   double[n * dimensioni] features normalizzate (per righe, ordine originale)
+ *   double[n * numTarget] target normalizzati
+ *   int[n] id dei nodi e byte[n] assi di split (solo se FLAG_TREE)
+ *
+ * Il file si genera una volta con:
+ *   java scr.ModelSnapshot dataset.csv modello.knn
+ * e all'avvio viene letto tramite un FileChannel mappato in memoria.
+ */
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x4B4E4E31; // "KNN1"
+    private static final int VERSION = 1;
+    private static final int FLAG_TREE = 1;
+    private static final int FLAG_WEIGHTED = 2;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES;
+
+    public static void write(KNNClassifier classifier, String path) throws IOException {
+        Dataset data = classifier.getTrainingData();
+        NeighborSearch search = classifier.getSearch();
+        double[] mins = classifier.getTargetMins();
+        double[] maxs = classifier.getTargetMaxs();
+        double[] weights = search.kernel().getWeights();
+
+        int n = data.size();
+        // Il layout dell'albero si salva solo se copre tutte le righe (con
+        // l'apprendimento online possono esserci campioni non ancora nell'albero)
+        KDTree tree = search instanceof KDTree && search.size() == n ? (KDTree) search : null;
+        int dims = data.dimensions();
+        int numTargets = mins.length;
+        int flags = (tree != null ? FLAG_TREE : 0) | (weights != null ? FLAG_WEIGHTED : 0);
+
+        long size = HEADER_BYTES
+                + 2L * numTargets * Double.BYTES
+                + (weights != null ? (long) dims * Double.BYTES : 0)
+                + (long) n * dims * Double.BYTES
+                + (long) n * numTargets * Double.BYTES
+                + (tree != null ? (long) n * (Integer.BYTES + 1) : 0);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Modello troppo grande per il formato binario: " + size + " byte");
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION);
+        buf.putInt(n).putInt(dims).putInt(numTargets).putInt(flags);
+        for (double v : mins) buf.putDouble(v);
+        for (double v : maxs) buf.putDouble(v);
+        if (weights != null) {
+            for (double w : weights) buf.putDouble(w);
+        }
+        for (int r = 0; r < n; r++) {
+            for (int d = 0; d < dims; d++) buf.putDouble(data.feature(r, d));
+        }
+        for (int r = 0; r < n; r++) {
+            for (int t = 0; t < numTargets; t++) buf.putDouble(data.target(r, t));
+        }
+        if (tree != null) {
+            for (int id : tree.nodeIds()) buf.putInt(id);
+            buf.put(tree.nodeSplitAxes());
+        }
+        buf.flip();
+
+        // Scrivo su un file temporaneo e poi lo sposto, così un driver che
+        // parte nel frattempo non legge mai un file a metà
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+            ch.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static KNNClassifier read(String path, int k) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES) {
+                throw new IOException(path + " è troppo corto per un modello KNN");
+            }
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(path + " non è un modello KNN");
+            }
+            int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Versione del modello non supportata: " + version);
+            }
+            int n = buf.getInt();
+            int dims = buf.getInt();
+            int numTargets = buf.getInt();
+            int flags = buf.getInt();
+            if (dims != KNNClassifier.featureNames.length) {
+                throw new IOException("Il modello ha " + dims + " feature, attese "
+                        + KNNClassifier.featureNames.length);
+            }
+            // Un file troncato o corrotto deve dare IOException (e quindi il
+            // ritorno al CSV), non un'eccezione di buffer a metà lettura
+            if (n <= 0 || numTargets <= 0) {
+                throw new IOException("Intestazione del modello non valida: n = " + n + ", target = "
+                        + numTargets);
+            }
+            long expected = HEADER_BYTES
+                    + 2L * numTargets * Double.BYTES
+                    + ((flags & FLAG_WEIGHTED) != 0 ? (long) dims * Double.BYTES : 0)
+                    + (long) n * dims * Double.BYTES
+                    + (long) n * numTargets * Double.BYTES
+                    + ((flags & FLAG_TREE) != 0 ? (long) n * (Integer.BYTES + 1) : 0);
+            if (ch.size() != expected) {
+                throw new IOException(path + ": " + ch.size() + " byte, attesi " + expected
+                        + " (file troncato o corrotto)");
+            }
+
+            double[] mins = readDoubles(buf, numTargets);
+            double[] maxs = readDoubles(buf, numTargets);
+            DistanceKernel kernel = (flags & FLAG_WEIGHTED) != 0
+                    ? new DistanceKernel(readDoubles(buf, dims))
+                    : DistanceKernel.EUCLIDEAN;
+
+            // stesso layout per righe di Dataset: gli array si usano così come sono
+            double[] features = readDoubles(buf, n * dims);
+            double[] targets = readDoubles(buf, n * numTargets);
+            Dataset data = Dataset.wrap(n, dims, numTargets, features, targets);
+
+            NeighborSearch search;
+            if ((flags & FLAG_TREE) != 0) {
+                int[] ids = new int[n];
+                buf.asIntBuffer().get(ids);
+                buf.position(buf.position() + n * Integer.BYTES);
+                byte[] axes = new byte[n];
+                buf.get(axes);
+                for (int node = 0; node < n; node++) {
+                    if (ids[node] < 0 || ids[node] >= n || axes[node] < 0 || axes[node] >= dims) {
+                        throw new IOException(path + ": layout dell'albero corrotto al nodo " + node);
+                    }
+                }
+                search = new KDTree(data, kernel, ids, axes);
+            } else {
+                search = new KDTree(data, kernel);
+            }
+            return new KNNClassifier(data, mins, maxs, search, k);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer buf, int count) {
+        double[] values = new double[count];
+        buf.asDoubleBuffer().get(values);
+        buf.position(buf.position() + count * Double.BYTES);
+        return values;
+    }
+
+    // Passo di build: legge il CSV, normalizza, costruisce l'albero e salva
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Uso: java scr.ModelSnapshot <dataset.csv> <modello.knn>");
+            return;
+        }
+        long start = System.nanoTime();
+        KNNClassifier classifier = new KNNClassifier(args[0], 1);
+        write(classifier, args[1]);
+        System.out.printf("Modello scritto su %s in %.1f ms%n", args[1], (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,62 @@
+package scr;
+
+import java.util.StringTokenizer;
+
+/**
+ * Guida più auto dalla stessa JVM: l'auto i (da 0) si collega alla porta
+ * port+i, quindi 3001..300N con le impostazioni predefinite.
+ *
+ * Ogni auto ha il proprio Controller, socket e stato del ciclo e gira su un
+ * proprio thread (Client.drive); i controller vengono creati uno dopo
+ * l'altro, così SimpleDriver carica il modello k-NN una volta sola e lo
+ * condivide in sola lettura tra tutte le auto.
+ *
+ * Uso:
+ *   java scr.MultiCarClient scr.SimpleDriver cars:N [opzioni del Client]
+ *
+ * Le opzioni sono quelle di Client; con metrics:on o record:nome ogni auto
+ * scrive su un proprio file (nome_auto1.txt, nome_auto2.txt, ...).
+ */
+public class MultiCarClient {
+
+    public static void main(String[] args) throws InterruptedException {
+        Client.parseParameters(args);
+        int cars = 1;
+        for (int i = 1; i < args.length; i++) {
+            StringTokenizer st = new StringTokenizer(args[i], ":");
+            if (st.nextToken().equals("cars")) {
+                cars = Integer.parseInt(st.nextToken());
+            }
+        }
+        if (cars <= 0) {
+            System.out.println("cars:" + cars + " is not a valid option");
+            System.exit(0);
+        }
+
+        Thread[] threads = new Thread[cars];
+        for (int i = 0; i < cars; i++) {
+            Controller driver = Client.load(args[0]);
+            int port = Client.port + i;
+            String metricsFile = perCar(Client.metricsFile, i);
+            String recordFile = perCar(Client.recordFile, i);
+            threads[i] = new Thread(() -> Client.drive(driver, port, metricsFile, recordFile), "auto-" + (i + 1));
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        System.out.println("Client shutdown.");
+        System.out.println("Bye, bye!");
+    }
+
+    // metriche.txt -> metriche_auto2.txt per la seconda auto
+    static String perCar(String path, int car) {
+        if (path == null) {
+            return null;
+        }
+        int dot = path.lastIndexOf('.');
+        int slash = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        String suffix = "_auto" + (car + 1);
+        return dot > slash ? path.substring(0, dot) + suffix + path.substring(dot) : path + suffix;
+    }
+}
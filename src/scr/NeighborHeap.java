@@ -0,0 +1,123 @@
+package scr;
+
+/**
+ * Max-heap limitato di coppie (indice, distanza al quadrato) usato dalla
+ * ricerca dei k vicini. Gli array sono preallocati e riutilizzati a ogni
+ * query, quindi la ricerca non produce garbage.
+ *
+ * L'ordine è lessicografico su (distanza, indice): a parità di distanza
+ * vince l'indice più piccolo, così il risultato non dipende dall'ordine di
+ * visita dei punti.
+ *
+ * Non è thread-safe: ogni thread che interroga l'albero usa il proprio heap.
+ */
+public class NeighborHeap {
+
+    private int[] ids;
+    private double[] dists;
+    private int size;
+    private int k;
+
+    public NeighborHeap(int capacity) {
+        ids = new int[capacity];
+        dists = new double[capacity];
+    }
+
+    // Svuota lo heap e imposta il numero di vicini da tenere
+    public void reset(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k deve essere positivo: " + k);
+        }
+        if (k > ids.length) {
+            ids = new int[k];
+            dists = new double[k];
+        }
+        this.k = k;
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == k;
+    }
+
+    // Distanza del k-esimo vicino corrente (infinito finché lo heap non è pieno):
+    // è la soglia usata per il pruning
+    public double worst() {
+        return size < k ? Double.POSITIVE_INFINITY : dists[0];
+    }
+
+    // Inserisce il candidato se migliore del peggiore attuale
+    public void offer(int id, double dist) {
+        if (size < k) {
+            int i = size++;
+            ids[i] = id;
+            dists[i] = dist;
+            siftUp(i);
+        } else if (before(dist, id, dists[0], ids[0])) {
+            ids[0] = id;
+            dists[0] = dist;
+            siftDown(0);
+        }
+    }
+
+    // Scrive i vicini in ordine crescente di distanza e svuota lo heap.
+    // Restituisce il numero di vicini scritti.
+    public int drainSorted(int[] outIds, double[] outDists) {
+        int n = size;
+        while (size > 0) {
+            int last = --size;
+            outIds[last] = ids[0];
+            outDists[last] = dists[0];
+            ids[0] = ids[last];
+            dists[0] = dists[last];
+            siftDown(0);
+        }
+        return n;
+    }
+
+    // true se (d1, id1) precede (d2, id2)
+    private static boolean before(double d1, int id1, double d2, int id2) {
+        return d1 < d2 || (d1 == d2 && id1 < id2);
+    }
+
+    private void siftUp(int i) {
+        int id = ids[i];
+        double d = dists[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(dists[parent], ids[parent], d, id)) {
+                break;
+            }
+            ids[i] = ids[parent];
+            dists[i] = dists[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        dists[i] = d;
+    }
+
+    private void siftDown(int i) {
+        int id = ids[i];
+        double d = dists[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && before(dists[child], ids[child], dists[right], ids[right])) {
+                child = right;
+            }
+            if (!before(d, id, dists[child], ids[child])) {
+                break;
+            }
+            ids[i] = ids[child];
+            dists[i] = dists[child];
+            i = child;
+        }
+        ids[i] = id;
+        dists[i] = d;
+    }
+}
@@ -0,0 +1,33 @@
+package scr;
+
+/**
+ * Motore di ricerca dei k vicini su un insieme fisso di punti.
+ *
+ * Gli id restituiti sono le posizioni dei campioni nella lista usata per
+ * costruire il motore, le distanze sono al quadrato e i risultati sono in
+ * ordine crescente di (distanza, id): implementazioni diverse costruite
+ * sugli stessi dati e con lo stesso kernel danno esattamente lo stesso
+ * risultato. Le implementazioni sono immutabili dopo la costruzione e
+ * possono essere interrogate da più thread, ognuno con il proprio heap.
+ */
+public interface NeighborSearch {
+
+    int kNearestNeighbors(double[] query, int k, NeighborHeap heap, int[] outIds, double[] outDists);
+
+    /**
+     * Ricerca approssimata: valuta al massimo maxChecks punti (ma sempre
+     * almeno k) e restituisce i migliori trovati, in ordine. Con
+     * maxChecks <= 0 è la ricerca esatta. Solo KDTree sfrutta il limite; le
+     * altre implementazioni restano esatte.
+     */
+    default int kNearestNeighbors(double[] query, int k, int maxChecks, NeighborHeap heap,
+            BranchQueue branches, int[] outIds, double[] outDists) {
+        return kNearestNeighbors(query, k, heap, outIds, outDists);
+    }
+
+    int size();
+
+    int dimensions();
+
+    DistanceKernel kernel();
+}
@@ -0,0 +1,315 @@
+package scr;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log asincrono delle predizioni del KNNClassifier.
+ *
+ * Il thread di controllo copia input, predizione e id dei vicini in uno slot
+ * preallocato di una RingBuffer e torna subito; un thread in background
+ * formatta le voci e le scrive su un unico FileChannel aperto in append.
+ * Se la coda è piena la voce viene scartata e contata, così il ciclo di
+ * controllo non aspetta mai il disco. Il thread di scrittura parte alla
+ * prima voce (mai se il livello resta OFF) e quando la coda è vuota dorme
+ * finché un produttore non lo sveglia.
+ */
+public class PredictionLogger {
+
+    public enum Level {
+        OFF, // nessun log
+        SUMMARY, // input e predizione
+        FULL // input, predizione e features/target di ogni vicino
+    }
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // Voce del log: gli array sono riempiti sul posto dal produttore
+    private static final class Entry {
+        final double[] input;
+        final double[] prediction;
+        final int[] neighborIds;
+        int count;
+        // Livello al momento della predizione, non a quello della scrittura
+        Level level;
+
+        Entry(int features, int targets, int k) {
+            input = new double[features];
+            prediction = new double[targets];
+            neighborIds = new int[k];
+        }
+    }
+
+    private final String path;
+    private final Dataset trainingData;
+    // Con l'apprendimento online i vicini possono essere campioni aggiunti
+    // dopo la costruzione: in quel caso le righe si leggono da qui
+    private volatile IncrementalSearch rows;
+    private final RingBuffer<Entry> queue;
+    private final int k;
+
+    private volatile Level level;
+    private volatile int sampleEvery = 1;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed = false;
+    // log() in corso: close() li aspetta prima di chiedere l'ultima passata
+    private final AtomicInteger logging = new AtomicInteger();
+    private volatile boolean stopping = false;
+    // Il thread di scrittura è (o sta per essere) fermo in park()
+    private volatile boolean sleeping = false;
+    private volatile Thread writerThread;
+
+    // Usati solo dal thread di scrittura
+    private FileChannel channel;
+    private final StringBuilder text = new StringBuilder(4096);
+    private ByteBuffer bytes = ByteBuffer.allocateDirect(16 * 1024);
+
+    public PredictionLogger(String path, Dataset trainingData, int k, Level level) {
+        this(path, trainingData, k, level, DEFAULT_CAPACITY);
+    }
+
+    public PredictionLogger(String path, Dataset trainingData, int k, Level level, int capacity) {
+        this.path = path;
+        this.trainingData = trainingData;
+        this.k = k;
+        this.level = level;
+        int features = KNNClassifier.featureNames.length;
+        this.queue = new RingBuffer<>(capacity, () -> new Entry(features, 4, k));
+    }
+
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    public void setRows(IncrementalSearch rows) {
+        this.rows = rows;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    // Logga una predizione ogni n (1 = tutte)
+    public void setSampleEvery(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("La frequenza di campionamento deve essere >= 1: " + n);
+        }
+        this.sampleEvery = n;
+    }
+
+    // Voci scartate perché la coda era piena
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Mette in coda una predizione. Non blocca e non alloca: se il livello è
+     * OFF, se la voce non rientra nel campionamento o se la coda è piena
+     * ritorna subito.
+     */
+    public void log(double[] input, double[] prediction, int[] neighborIds, int count) {
+        Level current = level;
+        if (current == Level.OFF) {
+            return;
+        }
+        logging.incrementAndGet();
+        try {
+            if (closed) {
+                return;
+            }
+            int every = sampleEvery;
+            if (every > 1 && calls.getAndIncrement() % every != 0) {
+                return;
+            }
+            long pos = queue.tryClaim();
+            if (pos < 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+            Entry e = queue.get(pos);
+            System.arraycopy(input, 0, e.input, 0, e.input.length);
+            System.arraycopy(prediction, 0, e.prediction, 0, e.prediction.length);
+            int n = Math.min(count, k);
+            System.arraycopy(neighborIds, 0, e.neighborIds, 0, n);
+            e.count = n;
+            e.level = current;
+            queue.publish(pos);
+
+            if (!started.get() && started.compareAndSet(false, true)) {
+                writerThread = new Thread(this::drainLoop, "prediction-logger");
+                writerThread.setDaemon(true);
+                writerThread.start();
+            } else {
+                // publish è una scrittura release: senza il fence la lettura di
+                // sleeping potrebbe precederla e il writer dormirebbe con una voce in coda
+                VarHandle.fullFence();
+                if (sleeping) {
+                    LockSupport.unpark(writerThread);
+                }
+            }
+        } finally {
+            logging.decrementAndGet();
+        }
+    }
+
+    // Svuota la coda, forza i dati su disco e chiude il file
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Un log() che non ha visto closed può ancora pubblicare: lo aspetto
+        while (logging.get() > 0) {
+            Thread.onSpinWait();
+        }
+        stopping = true;
+        Thread t = writerThread;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (dropped.get() > 0) {
+            System.out.println("Log predizioni: " + dropped.get() + " voci scartate (coda piena)");
+        }
+    }
+
+    private void drainLoop() {
+        try {
+            channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            boolean lastPass = false;
+            while (true) {
+                boolean wrote = false;
+                long pos;
+                while ((pos = queue.poll()) >= 0) {
+                    format(queue.get(pos));
+                    queue.release(pos);
+                    wrote = true;
+                    if (text.length() > 8192) {
+                        flushText();
+                    }
+                }
+                if (wrote) {
+                    flushText();
+                }
+                if (lastPass) {
+                    break;
+                }
+                if (!wrote) {
+                    // Dopo stopping non arrivano più voci: un'ultima passata
+                    // raccoglie quelle pubblicate dopo il poll precedente
+                    if (stopping) {
+                        lastPass = true;
+                    } else {
+                        // poll() non consuma: ricontrollo la coda dopo aver
+                        // annunciato che dormo, così nessuna voce resta indietro
+                        sleeping = true;
+                        if (queue.poll() < 0 && !stopping) {
+                            LockSupport.park(this);
+                        }
+                        sleeping = false;
+                    }
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Stesso formato del vecchio log sincrono
+    private void format(Entry e) {
+        text.append("Sample:\n");
+        text.append("  input:     ");
+        appendArray(e.input);
+        text.append('\n');
+        text.append("  prediction:");
+        appendArray(e.prediction);
+        text.append("\n\n");
+
+        if (e.level == Level.FULL) {
+            for (int i = 0; i < e.count; i++) {
+                int row = e.neighborIds[i];
+                text.append("Vicino ").append(i + 1).append(":\n");
+                text.append("  features: ");
+                appendRow(row, false);
+                text.append('\n');
+                text.append("  target:   ");
+                appendRow(row, true);
+                text.append("\n\n");
+            }
+        }
+
+        text.append("--------------------------------------------------\n");
+    }
+
+    // Come Arrays.toString ma senza creare stringhe intermedie
+    private void appendArray(double[] values) {
+        text.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(values[i]);
+        }
+        text.append(']');
+    }
+
+    // Features o target di una riga del dataset, nello stesso formato
+    private void appendRow(int row, boolean targets) {
+        IncrementalSearch online = rows;
+        int n = targets ? trainingData.targetCount() : trainingData.dimensions();
+        text.append('[');
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            if (online != null) {
+                text.append(targets ? online.target(row, i) : online.feature(row, i));
+            } else {
+                text.append(targets ? trainingData.target(row, i) : trainingData.feature(row, i));
+            }
+        }
+        text.append(']');
+    }
+
+    // Il testo è tutto ASCII: lo copio byte per byte nel buffer e lo scrivo
+    private void flushText() throws IOException {
+        int len = text.length();
+        if (bytes.capacity() < len) {
+            bytes = ByteBuffer.allocateDirect(Integer.highestOneBit(len) << 1);
+        }
+        bytes.clear();
+        for (int i = 0; i < len; i++) {
+            bytes.put((byte) text.charAt(i));
+        }
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,161 @@
+package scr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * SensorModel con le letture SCR in campi primitivi e array di dimensione
+ * fissa.
+ *
+ * Il client ne tiene un'unica istanza e la riempie sul posto a ogni tick con
+ * refill(), senza stringhe, boxing o mappe; i getter sono semplici letture di
+ * campo che il JIT può inlinare in Controller.control. Gli array restituiti
+ * sono quelli interni e vengono sovrascritti al tick successivo.
+ */
+public class PrimitiveSensorModel implements SensorModel {
+
+    public static final int TRACK_SENSORS = 19;
+    public static final int OPPONENT_SENSORS = 36;
+    public static final int FOCUS_SENSORS = 5;
+    public static final int WHEELS = 4;
+
+    double angle;
+    double curLapTime;
+    double damage;
+    double distFromStart;
+    double distRaced;
+    double fuel;
+    int gear;
+    double lastLapTime;
+    int racePos;
+    double rpm;
+    double speedX;
+    double speedY;
+    double speedZ;
+    double trackPos;
+    double z;
+
+    final double[] track = new double[TRACK_SENSORS];
+    final double[] opponents = new double[OPPONENT_SENSORS];
+    final double[] focus = new double[FOCUS_SENSORS];
+    final double[] wheelSpinVel = new double[WHEELS];
+
+    // Numero di valori effettivamente letti per ogni array nell'ultimo messaggio
+    int trackCount;
+    int opponentsCount;
+    int focusCount;
+    int wheelSpinVelCount;
+
+    // Messaggio originale: i byte vengono copiati a ogni refill (il buffer del
+    // chiamante viene riutilizzato), la String si crea solo con getMessage()
+    private final byte[] raw = new byte[4096];
+    private int rawLength;
+    private String message;
+
+    // Azzera le letture e rilegge il messaggio tra position e limit di msg
+    public void refill(ByteBuffer msg) {
+        int len = Math.min(msg.remaining(), raw.length);
+        msg.get(msg.position(), raw, 0, len);
+        rawLength = len;
+        message = null;
+        SensorMessageParser.parse(msg, this);
+    }
+
+    // Riporta tutte le letture a zero prima di un nuovo messaggio, array
+    // compresi: una lettura assente non conserva il valore del tick precedente
+    public void clear() {
+        angle = curLapTime = damage = distFromStart = distRaced = fuel = 0;
+        lastLapTime = rpm = speedX = speedY = speedZ = trackPos = z = 0;
+        gear = racePos = 0;
+        trackCount = opponentsCount = focusCount = wheelSpinVelCount = 0;
+        Arrays.fill(track, 0);
+        Arrays.fill(opponents, 0);
+        Arrays.fill(focus, 0);
+        Arrays.fill(wheelSpinVel, 0);
+    }
+
+    public double getSpeed() {
+        return speedX;
+    }
+
+    public double getAngleToTrackAxis() {
+        return angle;
+    }
+
+    public double[] getTrackEdgeSensors() {
+        return track;
+    }
+
+    public double[] getFocusSensors() {
+        return focus;
+    }
+
+    public double getTrackPosition() {
+        return trackPos;
+    }
+
+    public int getGear() {
+        return gear;
+    }
+
+    public double[] getOpponentSensors() {
+        return opponents;
+    }
+
+    public int getRacePosition() {
+        return racePos;
+    }
+
+    public double getLateralSpeed() {
+        return speedY;
+    }
+
+    public double getCurrentLapTime() {
+        return curLapTime;
+    }
+
+    public double getDamage() {
+        return damage;
+    }
+
+    public double getDistanceFromStartLine() {
+        return distFromStart;
+    }
+
+    public double getDistanceRaced() {
+        return distRaced;
+    }
+
+    public double getFuelLevel() {
+        return fuel;
+    }
+
+    public double getLastLapTime() {
+        return lastLapTime;
+    }
+
+    public double getRPM() {
+        return rpm;
+    }
+
+    public double[] getWheelSpinVelocity() {
+        return wheelSpinVel;
+    }
+
+    public double getZSpeed() {
+        return speedZ;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    // Alloca la stringa solo alla prima richiesta dopo ogni refill
+    public String getMessage() {
+        if (message == null) {
+            message = new String(raw, 0, rawLength, StandardCharsets.US_ASCII);
+        }
+        return message;
+    }
+}
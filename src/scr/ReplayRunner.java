@@ -0,0 +1,207 @@
+package scr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.StringTokenizer;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Rigioca una gara registrata (Client record:file) su un Controller, senza
+ * simulatore: per ogni messaggio esegue parsing, control() e codifica
+ * dell'azione come farebbe il Client, e alla fine riporta tick al secondo,
+ * latenza per tick (p50/p99/p99.9/max) e un checksum dei comandi prodotti,
+ * utile per confrontare due versioni del controller.
+ *
+ * Uso:
+ *   java scr.ReplayRunner scr.SimpleDriver gara.scrlog [opzioni]
+ *
+ * Opzioni:
+ *   - rate:N esegue N tick al secondo, 0 il più velocemente possibile, recorded con i tempi della registrazione (il valore predefinito è 0).
+ *   - loops:N ripete il log N volte misurando tutte le ripetizioni (il valore predefinito è 1).
+ *   - warmup:N ripete prima il log N volte senza misurare, per scaldare il JIT (il valore predefinito è 0).
+ *   - parser:primitive|message usa PrimitiveSensorModel come il Client o il vecchio MessageParser (il valore predefinito è primitive).
+ *   - metricsFile:nome aggiunge il riepilogo anche a questo file.
+ */
+public class ReplayRunner {
+
+    private static final byte[] SHUTDOWN = "***shutdown***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESTART = "***restart***".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDENTIFIED = "***identified***".getBytes(StandardCharsets.US_ASCII);
+
+    private static long rate;
+    private static boolean recordedRate;
+    private static int loops;
+    private static int warmup;
+    private static boolean messageParser;
+    private static String metricsFile;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Uso: java scr.ReplayRunner <controller> <log> [rate:N|recorded] [loops:N] "
+                    + "[warmup:N] [parser:primitive|message] [metricsFile:nome]");
+            return;
+        }
+        parseParameters(args);
+
+        // Ogni passata parte da un controller nuovo: lo stato del driver (marcia,
+        // frizione, recupero) non passa da una ripetizione all'altra e il
+        // checksum non dipende da warmup e loops
+        Controller driver = null;
+        MessageLogReader log = new MessageLogReader(args[1]);
+
+        for (int i = 0; i < warmup; i++) {
+            driver = freshController(args[0], driver);
+            replay(driver, log, null, null);
+        }
+
+        TickMetrics metrics = new TickMetrics(metricsFile, 0);
+        CRC32 checksum = new CRC32();
+        long elapsed = 0;
+        long ticks = 0;
+        for (int i = 0; i < loops; i++) {
+            driver = freshController(args[0], driver);
+            driver.setMetrics(metrics);
+            long start = System.nanoTime();
+            ticks += replay(driver, log, metrics, checksum);
+            elapsed += System.nanoTime() - start;
+            driver.setMetrics(null);
+        }
+        double seconds = elapsed / 1e9;
+
+        if (driver != null) {
+            driver.shutdown();
+        }
+        metrics.close();
+        System.out.printf(Locale.US, "%d tick in %.3f s: %.0f tick/s, checksum comandi %08x%n",
+                ticks, seconds, ticks / seconds, checksum.getValue());
+    }
+
+    // Una passata sul log; restituisce il numero di tick eseguiti
+    private static long replay(Controller driver, MessageLogReader log, TickMetrics metrics, CRC32 checksum) {
+        PrimitiveSensorModel sensors = new PrimitiveSensorModel();
+        ByteBuffer outMsg = ByteBuffer.allocateDirect(256);
+        long period = rate > 0 ? 1_000_000_000L / rate : 0;
+        long ticks = 0;
+        long first = -1;
+        long start = System.nanoTime();
+
+        log.rewind();
+        while (log.next()) {
+            ByteBuffer inMsg = log.message();
+            if (SensorMessageParser.contains(inMsg, IDENTIFIED)) {
+                continue;
+            }
+            if (SensorMessageParser.contains(inMsg, SHUTDOWN)) {
+                break;
+            }
+            if (SensorMessageParser.contains(inMsg, RESTART)) {
+                driver.reset();
+                continue;
+            }
+
+            // attesa fino all'istante previsto per questo tick
+            if (recordedRate) {
+                if (first < 0)
+                    first = log.timestamp();
+                waitUntil(start + log.timestamp() - first);
+            } else if (period > 0) {
+                waitUntil(start + ticks * period);
+            }
+
+            long tickStart = System.nanoTime();
+            SensorModel model;
+            if (messageParser) {
+                byte[] raw = new byte[inMsg.remaining()];
+                inMsg.get(inMsg.position(), raw);
+                model = new MessageBasedSensorModel(new String(raw, StandardCharsets.US_ASCII));
+            } else {
+                sensors.refill(inMsg);
+                model = sensors;
+            }
+            long parsed = System.nanoTime();
+            Action action = driver.control(model);
+            long controlled = System.nanoTime();
+            ActionEncoder.encode(action, outMsg);
+            long encoded = System.nanoTime();
+            ticks++;
+
+            if (metrics != null) {
+                metrics.record(TickMetrics.Stage.PARSE, parsed - tickStart);
+                metrics.record(TickMetrics.Stage.CONTROL, controlled - parsed);
+                metrics.record(TickMetrics.Stage.ENCODE, encoded - controlled);
+                metrics.tick(encoded - tickStart);
+            }
+            if (checksum != null) {
+                checksum.update(outMsg);
+            }
+        }
+        return ticks;
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static void parseParameters(String[] args) {
+        rate = 0;
+        recordedRate = false;
+        loops = 1;
+        warmup = 0;
+        messageParser = false;
+        metricsFile = null;
+
+        for (int i = 2; i < args.length; i++) {
+            StringTokenizer st = new StringTokenizer(args[i], ":");
+            String entity = st.nextToken();
+            String value = st.nextToken();
+            if (entity.equals("rate")) {
+                if (value.equals("recorded"))
+                    recordedRate = true;
+                else
+                    rate = Long.parseLong(value);
+            } else if (entity.equals("loops")) {
+                loops = Integer.parseInt(value);
+            } else if (entity.equals("warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (entity.equals("parser")) {
+                if (value.equals("message"))
+                    messageParser = true;
+                else if (!value.equals("primitive")) {
+                    System.out.println(entity + ":" + value + " is not a valid option");
+                    System.exit(0);
+                }
+            } else if (entity.equals("metricsFile")) {
+                metricsFile = value;
+            } else {
+                System.out.println(entity + ":" + value + " is not a valid option");
+                System.exit(0);
+            }
+        }
+    }
+
+    // Nuova istanza del controller; la precedente si spegne solo dopo, così
+    // le risorse condivise tra istanze (il modello di SimpleDriver) restano caricate
+    private static Controller freshController(String name, Controller previous) {
+        Controller next = loadController(name);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        return next;
+    }
+
+    private static Controller loadController(String name) {
+        try {
+            return (Controller) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            System.out.println(name + " is not a controller class: " + e);
+            System.exit(0);
+            return null;
+        }
+    }
+}
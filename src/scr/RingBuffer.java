@@ -0,0 +1,85 @@
+package scr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Coda circolare limitata, lock-free, con più produttori e un solo
+ * consumatore. Gli slot sono oggetti preallocati che i produttori riempiono
+ * sul posto, quindi mettere in coda non alloca nulla.
+ *
+ * Produttore: pos = tryClaim(); se pos >= 0 riempie get(pos) e chiama
+ * publish(pos). Se la coda è piena tryClaim restituisce -1 e il produttore
+ * decide cosa fare (di solito scarta l'elemento) senza mai bloccarsi.
+ *
+ * Consumatore: pos = poll(); se pos >= 0 legge get(pos) e chiama
+ * release(pos) per restituire lo slot.
+ */
+public class RingBuffer<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    // sequences[i] == pos: slot libero per la posizione pos
+    // sequences[i] == pos + 1: slot pubblicato, pronto per il consumatore
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // solo il consumatore lo legge e lo scrive
+
+    public RingBuffer(int capacity, Supplier<T> factory) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("La capacità deve essere una potenza di 2: " + capacity);
+        }
+        slots = new Object[capacity];
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = factory.get();
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    // Prenota il prossimo slot; -1 se la coda è piena
+    public long tryClaim() {
+        long pos = tail.get();
+        while (true) {
+            long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return -1;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(long pos) {
+        return (T) slots[(int) pos & mask];
+    }
+
+    // Rende visibile al consumatore lo slot riempito
+    public void publish(long pos) {
+        sequences.lazySet((int) pos & mask, pos + 1);
+    }
+
+    // Posizione del prossimo slot pubblicato; -1 se non ce ne sono
+    public long poll() {
+        long pos = head;
+        return sequences.get((int) pos & mask) == pos + 1 ? pos : -1;
+    }
+
+    // Restituisce lo slot ai produttori
+    public void release(long pos) {
+        sequences.lazySet((int) pos & mask, pos + slots.length);
+        head = pos + 1;
+    }
+}
@@ -40,13 +40,22 @@ public class Sample {
     // Calcolo distanza euclidea tra le features di due sample
 
     public double distance(Sample other) {
-        double sum = 0;
-        for (int i = 0; i < this.features.length; i++) {
-            sum += Math.pow(this.features[i] - other.features[i], 2);
-        }
-        return Math.sqrt(sum);
+        return Math.sqrt(squaredDistance(other));
+    }
+
+    // Distanza euclidea al quadrato: basta per confrontare i vicini
+    public double squaredDistance(Sample other) {
+        return DistanceKernel.EUCLIDEAN.squared(this.features, other.features);
+    }
+
+    // Distanza al quadrato con un kernel qualsiasi (ad esempio pesato)
+    public double squaredDistance(Sample other, DistanceKernel kernel) {
+        return kernel.squared(this.features, other.features);
     }
     /*
+     * Variante pesata: ora si ottiene con
+     * squaredDistance(other, new DistanceKernel(weights))
+     *
      * public double distance(Sample other) {
      * double sum = 0;
      * 
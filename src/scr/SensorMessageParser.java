@@ -0,0 +1,178 @@
+package scr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser a passata singola dei messaggi dei sensori SCR, ad esempio
+ * "(angle 0.003)(gear 1)(track 7.4 7.5 ...)(trackPos -0.33)...".
+ *
+ * Lavora direttamente sui byte ricevuti e scrive nei campi di un
+ * PrimitiveSensorModel riutilizzato: riconosce l'insieme fisso dei nomi
+ * delle letture SCR e non crea stringhe, oggetti boxed o mappe. Le letture
+ * sconosciute vengono ignorate.
+ */
+public final class SensorMessageParser {
+
+    // Identificativi delle letture, nell'ordine in cui le invia il server
+    private static final int ANGLE = 0;
+    private static final int CUR_LAP_TIME = 1;
+    private static final int DAMAGE = 2;
+    private static final int DIST_FROM_START = 3;
+    private static final int DIST_RACED = 4;
+    private static final int FUEL = 5;
+    private static final int GEAR = 6;
+    private static final int LAST_LAP_TIME = 7;
+    private static final int OPPONENTS = 8;
+    private static final int RACE_POS = 9;
+    private static final int RPM = 10;
+    private static final int SPEED_X = 11;
+    private static final int SPEED_Y = 12;
+    private static final int SPEED_Z = 13;
+    private static final int TRACK = 14;
+    private static final int TRACK_POS = 15;
+    private static final int WHEEL_SPIN_VEL = 16;
+    private static final int Z = 17;
+    private static final int FOCUS = 18;
+    private static final int UNKNOWN = -1;
+
+    private static final byte[][] NAMES = {
+            ascii("angle"), ascii("curLapTime"), ascii("damage"), ascii("distFromStart"),
+            ascii("distRaced"), ascii("fuel"), ascii("gear"), ascii("lastLapTime"),
+            ascii("opponents"), ascii("racePos"), ascii("rpm"), ascii("speedX"),
+            ascii("speedY"), ascii("speedZ"), ascii("track"), ascii("trackPos"),
+            ascii("wheelSpinVel"), ascii("z"), ascii("focus")
+    };
+
+    private SensorMessageParser() {
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Analizza i byte tra position e limit di msg (la posizione non viene
+     * modificata) e scrive le letture in out, che viene prima azzerato.
+     */
+    public static void parse(ByteBuffer msg, PrimitiveSensorModel out) {
+        out.clear();
+        int end = msg.limit();
+        int i = msg.position();
+        int hint = 0;
+
+        while (i < end) {
+            // cerca l'inizio della prossima lettura
+            while (i < end && msg.get(i) != '(') i++;
+            i++;
+            int nameStart = i;
+            while (i < end && msg.get(i) != ' ' && msg.get(i) != ')') i++;
+            if (i >= end) break;
+
+            int id = lookup(msg, nameStart, i - nameStart, hint);
+            if (id != UNKNOWN) hint = id + 1;
+
+            // legge i valori fino alla parentesi chiusa
+            int count = 0;
+            while (i < end) {
+                byte c = msg.get(i);
+                if (c == ')') break;
+                if (c == ' ') {
+                    i++;
+                    continue;
+                }
+                int tokenStart = i;
+                while (i < end && msg.get(i) != ' ' && msg.get(i) != ')') i++;
+                double value = parseDouble(msg, tokenStart, i, id);
+                store(out, id, count++, value);
+            }
+            setCount(out, id, count);
+            i++;
+        }
+    }
+
+    /**
+     * true se i byte tra position e limit di msg contengono pattern; serve
+     * per riconoscere i messaggi di controllo (***identified***,
+     * ***restart***, ***shutdown***) senza convertire il buffer in stringa.
+     */
+    public static boolean contains(ByteBuffer msg, byte[] pattern) {
+        int last = msg.limit() - pattern.length;
+        byte first = pattern[0];
+        for (int i = msg.position(); i <= last; i++) {
+            if (msg.get(i) == first && matches(msg, i, pattern.length, pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // I nomi arrivano quasi sempre nello stesso ordine: si prova prima quello
+    // atteso e poi tutti gli altri
+    private static int lookup(ByteBuffer msg, int start, int len, int hint) {
+        if (hint < NAMES.length && matches(msg, start, len, NAMES[hint])) {
+            return hint;
+        }
+        for (int n = 0; n < NAMES.length; n++) {
+            if (matches(msg, start, len, NAMES[n])) {
+                return n;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean matches(ByteBuffer msg, int start, int len, byte[] name) {
+        if (name.length != len) return false;
+        for (int j = 0; j < len; j++) {
+            if (msg.get(start + j) != name[j]) return false;
+        }
+        return true;
+    }
+
+    private static void store(PrimitiveSensorModel out, int id, int index, double value) {
+        switch (id) {
+            case ANGLE: out.angle = value; break;
+            case CUR_LAP_TIME: out.curLapTime = value; break;
+            case DAMAGE: out.damage = value; break;
+            case DIST_FROM_START: out.distFromStart = value; break;
+            case DIST_RACED: out.distRaced = value; break;
+            case FUEL: out.fuel = value; break;
+            case GEAR: out.gear = (int) value; break;
+            case LAST_LAP_TIME: out.lastLapTime = value; break;
+            case RACE_POS: out.racePos = (int) value; break;
+            case RPM: out.rpm = value; break;
+            case SPEED_X: out.speedX = value; break;
+            case SPEED_Y: out.speedY = value; break;
+            case SPEED_Z: out.speedZ = value; break;
+            case TRACK_POS: out.trackPos = value; break;
+            case Z: out.z = value; break;
+            case TRACK: if (index < out.track.length) out.track[index] = value; break;
+            case OPPONENTS: if (index < out.opponents.length) out.opponents[index] = value; break;
+            case FOCUS: if (index < out.focus.length) out.focus[index] = value; break;
+            case WHEEL_SPIN_VEL: if (index < out.wheelSpinVel.length) out.wheelSpinVel[index] = value; break;
+            default: break;
+        }
+    }
+
+    private static void setCount(PrimitiveSensorModel out, int id, int count) {
+        switch (id) {
+            case TRACK: out.trackCount = Math.min(count, out.track.length); break;
+            case OPPONENTS: out.opponentsCount = Math.min(count, out.opponents.length); break;
+            case FOCUS: out.focusCount = Math.min(count, out.focus.length); break;
+            case WHEEL_SPIN_VEL: out.wheelSpinVelCount = Math.min(count, out.wheelSpinVel.length); break;
+            default: break;
+        }
+    }
+
+    // Valore non numerico: lo segnala e usa 0 come faceva MessageParser
+    static double parseDouble(ByteBuffer msg, int start, int end, int id) {
+        try {
+            return AsciiDouble.parse(msg, start, end);
+        } catch (NumberFormatException e) {
+            String name = id == UNKNOWN ? "?" : new String(NAMES[id], StandardCharsets.US_ASCII);
+            System.out.println("Error parsing value '" + AsciiDouble.toString(msg, start, end) + "' for " + name
+                    + " using 0.0");
+            return 0.0;
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package scr;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
 public class SimpleDriver extends Controller {
 
 	private KNNClassifier classifier;
+	// Il modello condiviso va rilasciato una sola volta per driver
+	private boolean released = false;
 	/* Costanti di cambio marcia */
-	private long lastGearChange = 0;
-	private static final long MIN_GEAR_INTERVAL_MS = 1500; // 1,5 secondo tra i cambi di marcia
+	// Tempo sul giro dell'ultimo cambio: l'intervallo si misura con l'orologio
+	// dei sensori, non con quello di sistema, così un replay (ReplayRunner)
+	// dà gli stessi comandi a qualsiasi velocità
+	private double lastGearChange = Double.NEGATIVE_INFINITY;
+	private static final double MIN_GEAR_INTERVAL_S = 1.5; // 1,5 secondo tra i cambi di marcia
 	final int[] gearUp = { 5000, 6000, 6000, 6500, 7000, 0 };
 	final int[] gearDown = { 0, 2500, 3000, 3000, 3500, 3500 };
 
@@ -52,28 +59,100 @@ public class SimpleDriver extends Controller {
 	// current clutch
 	private float clutch = 0;
 
+	// Azione restituita da control(): riutilizzata a ogni tick (il client la
+	// codifica subito, prima di chiamare di nuovo control)
+	private final Action action = new Action();
+
+	private static final String DATASET = "dataset_50_destra_sinistra_centro.csv";
+	// Modello pre-elaborato (java scr.ModelSnapshot <DATASET> <MODEL_SNAPSHOT>)
+	private static final String MODEL_SNAPSHOT = "dataset_50_destra_sinistra_centro.knn";
+	// Numero di vicini, modificabile con -Dscr.knn.k=N (vedi KNNTuner)
+	private static final int K = Integer.getInteger("scr.knn.k", 5);
+	// Aggregazione dei vicini, -Dscr.knn.aggregation=uniform|inverse_distance|gaussian
+	private static final String AGGREGATION = System.getProperty("scr.knn.aggregation", "uniform");
+	// Larghezza del kernel per gaussian, -Dscr.knn.bandwidth=H (se assente quella del classificatore)
+	private static final String BANDWIDTH = System.getProperty("scr.knn.bandwidth");
+	// Pesi della distanza, -Dscr.knn.weights=Nome=peso+Nome=peso (peso 0 esclude
+	// la feature); KNNTuner stampa le opzioni della configurazione migliore
+	private static final String WEIGHTS = System.getProperty("scr.knn.weights", "uniform");
+
+	// Modello condiviso da tutte le istanze (più auto nella stessa JVM): viene
+	// caricato dal primo driver e chiuso quando si spegne l'ultimo (anche
+	// ManualDriver in modalità assistita lo usa, vedi acquireClassifier)
+	private static KNNClassifier sharedClassifier;
+	private static int activeDrivers = 0;
+
 	public SimpleDriver() {
-		classifier = new KNNClassifier("dataset_50_destra_sinistra_centro.csv", 5);
+		classifier = acquireClassifier();
+	}
+
+	static synchronized KNNClassifier acquireClassifier() {
+		if (sharedClassifier == null) {
+			sharedClassifier = loadClassifier(K, DistanceKernel.parse(WEIGHTS, KNNClassifier.featureNames));
+			sharedClassifier.setAggregation(KNNClassifier.Aggregation.valueOf(AGGREGATION.toUpperCase(Locale.ROOT)));
+			if (BANDWIDTH != null) {
+				sharedClassifier.setBandwidth(Double.parseDouble(BANDWIDTH));
+			}
+		}
+		activeDrivers++;
+		return sharedClassifier;
+	}
+
+	static synchronized void releaseClassifier() {
+		if (activeDrivers == 0) {
+			return;
+		}
+		if (--activeDrivers == 0) {
+			sharedClassifier.close();
+			sharedClassifier = null;
+		}
+	}
+
+	// Usa lo snapshot binario se c'è, è più recente del CSV ed è stato salvato
+	// con la stessa distanza, altrimenti ricostruisce il modello dal CSV
+	private static KNNClassifier loadClassifier(int k, DistanceKernel kernel) {
+		File snapshot = new File(MODEL_SNAPSHOT);
+		if (snapshot.exists() && snapshot.lastModified() >= new File(DATASET).lastModified()) {
+			try {
+				KNNClassifier loaded = KNNClassifier.load(MODEL_SNAPSHOT, k);
+				if (Arrays.equals(loaded.getSearch().kernel().getWeights(), kernel.getWeights())) {
+					return loaded;
+				}
+				loaded.close();
+				System.out.println("Snapshot " + MODEL_SNAPSHOT + " salvato con altri pesi, uso il CSV");
+			} catch (IOException | RuntimeException e) {
+				// anche un contenuto incoerente (ad esempio pesi negativi) non deve
+				// impedire l'avvio: si ricostruisce il modello dal CSV
+				System.out.println("Snapshot " + MODEL_SNAPSHOT + " non leggibile, uso il CSV: " + e);
+			}
+		}
+		return new KNNClassifier(DATASET, k, kernel);
 	}
 
 	public void reset() {
 		System.out.println("Restarting the race!");
+		lastGearChange = Double.NEGATIVE_INFINITY;
 
 	}
 
 	public void shutdown() {
+		if (!released) {
+			released = true;
+			releaseClassifier();
+		}
 		System.out.println("Bye bye!");
 	}
 
 	private int getGear(SensorModel sensors) {
-		long now = System.currentTimeMillis();
+		double now = sensors.getCurrentLapTime();
 		int currentGear = sensors.getGear();
 		double rpm = sensors.getRPM();
 
 		if (currentGear < 1)
 			return 1;
 
-		if (now - lastGearChange < MIN_GEAR_INTERVAL_MS)
+		// Un tempo minore dell'ultimo cambio vuol dire giro nuovo o gara riavviata
+		if (now >= lastGearChange && now - lastGearChange < MIN_GEAR_INTERVAL_S)
 			return currentGear;
 
 		if (currentGear < 6 && rpm >= gearUp[currentGear - 1]) {
@@ -209,7 +288,7 @@ public class SimpleDriver extends Controller {
 				steer = -steer;
 			}
 			clutch = clutching(sensors, clutch);
-			Action action = new Action();
+			action.reset();
 			action.gear = gear;
 			action.steering = steer;
 			action.accelerate = 1.0f;
@@ -251,10 +330,14 @@ public class SimpleDriver extends Controller {
 		Sample currentSample = new Sample(features, new double[4]);
 
 		// Ottieni la predizione dal KNN (accel, brake, steering)
+		TickMetrics metrics = getMetrics();
+		long knnStart = metrics != null ? System.nanoTime() : 0;
 		double[] prediction = classifier.predict(currentSample);
+		if (metrics != null)
+			metrics.record(TickMetrics.Stage.KNN, System.nanoTime() - knnStart);
 
 		// Costruisci l'azione
-		Action action = new Action();
+		action.reset();
 		action.accelerate = (float) prediction[0];
 		action.brake = (float) prediction[1];
 		action.steering = (float) prediction[2];
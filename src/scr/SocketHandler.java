@@ -7,9 +7,16 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Daniele Loiacono
@@ -17,12 +24,37 @@ import java.net.UnknownHostException;
  */
 public class SocketHandler {
 
+	private static final int MAX_MESSAGE_BYTES = 4096;
+
 	private InetAddress address;
 	private int port;
 	private DatagramSocket socket;
 	private boolean verbose;
 
+	/*
+	 * Modalità NIO: DatagramChannel connesso e non bloccante, con buffer diretti
+	 * riutilizzati per invio e ricezione e timeout gestiti dal selector (nessuna
+	 * modifica delle opzioni del socket a ogni tick)
+	 */
+	private DatagramChannel channel;
+	private Selector selector;
+	private ByteBuffer sendBuffer;
+	private ByteBuffer receiveBuffer;
+
+	/*
+	 * Modalità classica: pacchetto e buffer riutilizzati, timeout impostato solo
+	 * quando cambia
+	 */
+	private byte[] packetBytes;
+	private DatagramPacket packet;
+	private ByteBuffer packetBuffer;
+	private int currentTimeout = 0;
+
 	public SocketHandler(String host, int port, boolean verbose) {
+		this(host, port, verbose, false);
+	}
+
+	public SocketHandler(String host, int port, boolean verbose, boolean nio) {
 
 		// set remote address
 		try {
@@ -31,19 +63,50 @@ public class SocketHandler {
 			e.printStackTrace();
 		}
 		this.port = port;
+		this.verbose = verbose;
 		// init the socket
-		try {
-			socket = new DatagramSocket();
-		} catch (SocketException e) {
-			e.printStackTrace();
+		if (nio) {
+			try {
+				channel = DatagramChannel.open();
+				channel.connect(new InetSocketAddress(address, port));
+				channel.configureBlocking(false);
+				selector = Selector.open();
+				channel.register(selector, SelectionKey.OP_READ);
+				sendBuffer = ByteBuffer.allocateDirect(MAX_MESSAGE_BYTES);
+				receiveBuffer = ByteBuffer.allocateDirect(MAX_MESSAGE_BYTES);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		} else {
+			try {
+				socket = new DatagramSocket();
+			} catch (SocketException e) {
+				e.printStackTrace();
+			}
+			packetBytes = new byte[MAX_MESSAGE_BYTES];
+			packet = new DatagramPacket(packetBytes, packetBytes.length);
+			packetBuffer = ByteBuffer.wrap(packetBytes);
 		}
-		this.verbose = verbose;
+	}
+
+	public boolean isNio() {
+		return channel != null;
 	}
 
 	public void send(String msg) {
 
 		if (verbose)
 			System.out.println("Sending: " + msg);
+		if (isNio()) {
+			// il messaggio è ASCII: copio i caratteri nel buffer diretto
+			sendBuffer.clear();
+			int len = Math.min(msg.length(), sendBuffer.capacity());
+			for (int i = 0; i < len; i++)
+				sendBuffer.put((byte) msg.charAt(i));
+			sendBuffer.flip();
+			write(sendBuffer);
+			return;
+		}
 		try {
 			byte[] buffer = msg.getBytes();
 			socket.send(new DatagramPacket(buffer, buffer.length, address, port));
@@ -52,38 +115,132 @@ public class SocketHandler {
 		}
 	}
 
+	/**
+	 * Invia i byte tra position e limit di msg senza allocare (la posizione di
+	 * msg avanza fino al limite).
+	 */
+	public void send(ByteBuffer msg) {
+		if (verbose)
+			System.out.println("Sending: " + StandardCharsets.US_ASCII.decode(msg.duplicate()));
+		if (isNio()) {
+			if (msg.isDirect()) {
+				write(msg);
+			} else {
+				sendBuffer.clear();
+				sendBuffer.put(msg);
+				sendBuffer.flip();
+				write(sendBuffer);
+			}
+			return;
+		}
+		try {
+			int len = msg.remaining();
+			msg.get(packetBytes, 0, len);
+			packet.setData(packetBytes, 0, len);
+			packet.setAddress(address);
+			packet.setPort(port);
+			socket.send(packet);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void write(ByteBuffer buffer) {
+		try {
+			channel.write(buffer);
+		} catch (PortUnreachableException e) {
+			// il server non è (ancora) in ascolto: il messaggio va perso come col
+			// socket classico, il client lo ripete (vedi receiveChannel)
+			buffer.position(buffer.limit());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	public String receive() {
+		return receive(0);
+	}
+
+	// Il timeout del socket classico viene cambiato solo se serve (receivePacket)
+	public String receive(int timeout) {
+		ByteBuffer received = receiveBytes(timeout);
+		return received == null ? null : StandardCharsets.US_ASCII.decode(received).toString();
+	}
+
+	/**
+	 * Riceve un messaggio e lo restituisce come buffer interno pronto da leggere
+	 * (tra position e limit), oppure null se entro timeout ms (0 = senza limite)
+	 * non arriva niente. Il buffer viene riutilizzato alla chiamata successiva.
+	 */
+	public ByteBuffer receiveBytes(int timeout) {
+		ByteBuffer received = isNio() ? receiveChannel(timeout) : receivePacket(timeout);
+		if (received != null && verbose)
+			System.out.println("Received: " + StandardCharsets.US_ASCII.decode(received.duplicate()));
+		return received;
+	}
+
+	private ByteBuffer receiveChannel(int timeout) {
+		long deadline = timeout > 0 ? System.nanoTime() + timeout * 1_000_000L : 0;
 		try {
-			byte[] buffer = new byte[1024];
-			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-			socket.receive(packet);
-			String received = new String(packet.getData(), 0, packet.getLength());
-			if (verbose)
-				System.out.println("Received: " + received);
-			return received;
-		} catch (SocketTimeoutException se) {
-			if (verbose)
-				System.out.println("Socket Timeout!");
-		} catch (Exception e) {
+			while (true) {
+				receiveBuffer.clear();
+				try {
+					if (channel.read(receiveBuffer) > 0) {
+						receiveBuffer.flip();
+						return receiveBuffer;
+					}
+				} catch (PortUnreachableException e) {
+					// il server non è (ancora) in ascolto: aspetto come col socket classico
+				}
+				long wait = 0;
+				if (timeout > 0) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					// select(0) aspetterebbe per sempre
+					wait = Math.max(1, remaining / 1_000_000L);
+				}
+				selector.select(wait);
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
+		if (verbose)
+			System.out.println("Socket Timeout!");
 		return null;
 	}
 
-	public String receive(int timeout) {
+	private ByteBuffer receivePacket(int timeout) {
 		try {
-			socket.setSoTimeout(timeout);
-			String received = receive();
-			socket.setSoTimeout(0);
-			return received;
-		} catch (SocketException e) {
-			// TODO Auto-generated catch block
+			if (timeout != currentTimeout) {
+				socket.setSoTimeout(timeout);
+				currentTimeout = timeout;
+			}
+			packet.setData(packetBytes, 0, packetBytes.length);
+			socket.receive(packet);
+			packetBuffer.clear().limit(packet.getLength());
+			return packetBuffer;
+		} catch (SocketTimeoutException se) {
+			if (verbose)
+				System.out.println("Socket Timeout!");
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
 
 	public void close() {
+		if (isNio()) {
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
 		socket.close();
 	}
 
@@ -0,0 +1,366 @@
+package scr;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Legge una telemetria scritta da TelemetryWriter.
+ *
+ * All'apertura legge lo schema e scorre le intestazioni dei blocchi
+ * (saltando i dati compressi) per costruire l'indice: offset, numero di
+ * frame e primo frame di ogni blocco. Un frame qualsiasi si legge
+ * decomprimendo solo il suo blocco; l'ultimo blocco decompresso resta in
+ * cache, quindi la lettura sequenziale decomprime ogni blocco una volta.
+ * Un blocco troncato in coda (registrazione interrotta) viene ignorato.
+ *
+ * Il main proietta la telemetria in un CSV con le colonne scelte, nel
+ * formato letto da KNNClassifier:
+ *   java scr.TelemetryReader cattura.tlm out:dataset.csv [columns:A,B,...] [every:N]
+ * Senza out: stampa schema e statistiche. columns predefinite: le 11
+ * feature e i 4 comandi del dataset di ManualDriver; every:N tiene un frame
+ * ogni N.
+ */
+public class TelemetryReader implements Closeable {
+
+    private final FileChannel channel;
+    private final String[] names;
+    private final byte[] types;
+    private final int blockFrames;
+
+    // Indice dei blocchi
+    private long[] offsets = new long[64];
+    private int[] compressedSizes = new int[64];
+    private int[] frameCounts = new int[64];
+    private long[] firstFrames = new long[64];
+    private int blocks;
+    private long frames;
+    private final long endOfBlocks;
+
+    // Ultimo blocco decompresso: values[colonna * frameCounts[b] + frame]
+    private int cachedBlock = -1;
+    private final double[] values;
+    private final byte[] planes;
+    private final long[] bits;
+    private byte[] input = new byte[0];
+    private final Inflater inflater = new Inflater();
+
+    public TelemetryReader(String path) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer fixed = read(0, 4 * Integer.BYTES);
+            if (fixed.remaining() < 4 * Integer.BYTES || fixed.getInt() != TelemetryWriter.MAGIC) {
+                throw new IOException(path + " non è una telemetria SCR");
+            }
+            int version = fixed.getInt();
+            if (version != TelemetryWriter.VERSION) {
+                throw new IOException("Versione della telemetria non supportata: " + version);
+            }
+            blockFrames = fixed.getInt();
+            int columns = fixed.getInt();
+            if (blockFrames < 1 || columns < 1) {
+                throw new IOException(path + ": intestazione non valida");
+            }
+
+            long pos = 4 * Integer.BYTES;
+            names = new String[columns];
+            types = new byte[columns];
+            for (int c = 0; c < columns; c++) {
+                ByteBuffer col = read(pos, 1 + Short.BYTES);
+                if (col.remaining() < 1 + Short.BYTES) {
+                    throw new IOException(path + ": schema troncato");
+                }
+                types[c] = col.get();
+                int len = col.getShort() & 0xFFFF;
+                ByteBuffer name = read(pos + 1 + Short.BYTES, len);
+                if (name.remaining() < len) {
+                    throw new IOException(path + ": schema troncato");
+                }
+                names[c] = StandardCharsets.UTF_8.decode(name).toString();
+                pos += 1 + Short.BYTES + len;
+            }
+
+            long size = channel.size();
+            while (pos + TelemetryWriter.BLOCK_HEADER_BYTES <= size) {
+                ByteBuffer header = read(pos, TelemetryWriter.BLOCK_HEADER_BYTES);
+                int n = header.getInt();
+                int compressed = header.getInt();
+                long data = pos + TelemetryWriter.BLOCK_HEADER_BYTES;
+                if (n < 1 || n > blockFrames || compressed < 0 || data + compressed > size) {
+                    break;
+                }
+                addBlock(data, compressed, n);
+                pos = data + compressed;
+            }
+            endOfBlocks = pos;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        values = new double[names.length * blockFrames];
+        planes = new byte[names.length * blockFrames * Double.BYTES];
+        bits = new long[blockFrames];
+    }
+
+    private void addBlock(long offset, int compressed, int n) {
+        if (blocks == offsets.length) {
+            int capacity = blocks * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            compressedSizes = Arrays.copyOf(compressedSizes, capacity);
+            frameCounts = Arrays.copyOf(frameCounts, capacity);
+            firstFrames = Arrays.copyOf(firstFrames, capacity);
+        }
+        offsets[blocks] = offset;
+        compressedSizes[blocks] = compressed;
+        frameCounts[blocks] = n;
+        firstFrames[blocks] = frames;
+        blocks++;
+        frames += n;
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining() && channel.read(buf, pos + buf.position()) >= 0) {
+        }
+        buf.flip();
+        return buf;
+    }
+
+    public String[] columnNames() {
+        return names.clone();
+    }
+
+    public int columnCount() {
+        return names.length;
+    }
+
+    // Indice della colonna con quel nome, -1 se non c'è
+    public int columnIndex(String name) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equals(name)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isInteger(int column) {
+        return types[column] == TelemetryWriter.TYPE_INT;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    public int blocks() {
+        return blocks;
+    }
+
+    public int blockFrames(int block) {
+        return frameCounts[block];
+    }
+
+    public long blockFirstFrame(int block) {
+        return firstFrames[block];
+    }
+
+    int blockFrameCapacity() {
+        return blockFrames;
+    }
+
+    // Fine dell'ultimo blocco completo (da qui TelemetryWriter accoda)
+    long endOfBlocks() {
+        return endOfBlocks;
+    }
+
+    /**
+     * Decomprime il blocco e restituisce i suoi valori per colonne: il frame
+     * f della colonna c è in [c * blockFrames(block) + f]. L'array è interno
+     * e viene sovrascritto dalla lettura di un altro blocco.
+     */
+    public double[] block(int block) throws IOException {
+        if (block == cachedBlock) {
+            return values;
+        }
+        int n = frameCounts[block];
+        int size = compressedSizes[block];
+        if (input.length < size) {
+            input = new byte[size];
+        }
+        ByteBuffer in = ByteBuffer.wrap(input, 0, size);
+        while (in.hasRemaining() && channel.read(in, offsets[block] + in.position()) >= 0) {
+        }
+        int expected = names.length * n * Double.BYTES;
+        inflater.reset();
+        inflater.setInput(input, 0, size);
+        try {
+            int len = 0;
+            while (len < expected && !inflater.finished()) {
+                int got = inflater.inflate(planes, len, expected - len);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += got;
+            }
+            if (len != expected) {
+                throw new IOException("Blocco " + block + " corrotto: " + len + " byte invece di " + expected);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Blocco " + block + " corrotto: " + e.getMessage());
+        }
+        decodePlanes(planes, n, values);
+        cachedBlock = block;
+        return values;
+    }
+
+    // Inverso di TelemetryWriter.encodePlanes
+    private void decodePlanes(byte[] in, int n, double[] out) {
+        int p = 0;
+        for (int c = 0; c < names.length; c++) {
+            Arrays.fill(bits, 0, n, 0);
+            for (int k = 0; k < Double.BYTES; k++) {
+                int shift = 8 * k;
+                for (int f = 0; f < n; f++) {
+                    bits[f] |= (in[p++] & 0xFFL) << shift;
+                }
+            }
+            int base = c * n;
+            for (int f = 0; f < n; f++) {
+                out[base + f] = Double.longBitsToDouble(bits[f]);
+            }
+        }
+    }
+
+    // Valore di una colonna in un frame qualsiasi
+    public double value(long frame, int column) throws IOException {
+        if (frame < 0 || frame >= frames) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " su " + frames);
+        }
+        int b = blockOf(frame);
+        double[] v = block(b);
+        return v[column * frameCounts[b] + (int) (frame - firstFrames[b])];
+    }
+
+    // Blocco che contiene il frame (ricerca binaria sui primi frame)
+    private int blockOf(long frame) {
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstFrames[mid] <= frame) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Scrive in un CSV le colonne indicate, un frame ogni every, con
+     * l'intestazione; le colonne intere senza decimali. Restituisce il
+     * numero di righe scritte.
+     */
+    public long project(String[] columns, int every, String csvPath) throws IOException {
+        int[] index = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            index[i] = columnIndex(columns[i]);
+            if (index[i] < 0) {
+                throw new IOException("Colonna " + columns[i] + " non presente nella telemetria");
+            }
+        }
+        long rows = 0;
+        StringBuilder line = new StringBuilder(512);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(csvPath), 1 << 16)) {
+            out.write(String.join(",", columns));
+            out.write('\n');
+            for (int b = 0; b < blocks; b++) {
+                double[] v = block(b);
+                int n = frameCounts[b];
+                // il filtro every è sul numero di frame globale, non per blocco
+                long first = firstFrames[b];
+                int f = (int) ((every - first % every) % every);
+                for (; f < n; f += every) {
+                    line.setLength(0);
+                    for (int i = 0; i < index.length; i++) {
+                        if (i > 0) {
+                            line.append(',');
+                        }
+                        double x = v[index[i] * n + f];
+                        if (isInteger(index[i])) {
+                            line.append((long) x);
+                        } else {
+                            line.append(x);
+                        }
+                    }
+                    line.append('\n');
+                    out.append(line);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Uso: java scr.TelemetryReader <telemetria> [out:file.csv] [columns:A,B,...] [every:N]");
+            return;
+        }
+        String out = null;
+        String[] columns = DemonstrationRecorder.CSV_HEADER.trim().split(",");
+        int every = 1;
+        for (int i = 1; i < args.length; i++) {
+            int sep = args[i].indexOf(':');
+            String entity = sep < 0 ? args[i] : args[i].substring(0, sep);
+            String value = sep < 0 ? "" : args[i].substring(sep + 1);
+            if (entity.equals("out")) {
+                out = value;
+            } else if (entity.equals("columns")) {
+                columns = value.split(",");
+            } else if (entity.equals("every")) {
+                every = Integer.parseInt(value);
+                if (every < 1) {
+                    System.out.println(entity + ":" + value + " is not a valid option");
+                    return;
+                }
+            } else {
+                System.out.println(args[i] + " is not a valid option");
+                return;
+            }
+        }
+
+        try (TelemetryReader reader = new TelemetryReader(args[0])) {
+            if (out == null) {
+                long bytes = reader.endOfBlocks();
+                long raw = reader.frames() * reader.columnCount() * Double.BYTES;
+                System.out.println(args[0] + ": " + reader.frames() + " frame in " + reader.blocks() + " blocchi, "
+                        + reader.columnCount() + " colonne");
+                System.out.printf("%d byte (%.1f byte per frame, %.1fx rispetto ai double non compressi)%n", bytes,
+                        reader.frames() == 0 ? 0.0 : (double) bytes / reader.frames(),
+                        bytes == 0 ? 0.0 : (double) raw / bytes);
+                System.out.println("Colonne: " + String.join(",", reader.columnNames()));
+                return;
+            }
+            long start = System.nanoTime();
+            long rows = reader.project(columns, every, out);
+            System.out.printf("%d righe scritte su %s in %.1f ms%n", rows, out, (System.nanoTime() - start) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package scr;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Telemetria completa in formato binario compresso: a ogni frame tutte le
+ * letture di SensorModel e tutti i campi di Action, così i dataset per nuovi
+ * insiemi di feature si ricavano da una sola registrazione (vedi
+ * TelemetryReader) invece di rifare i giri.
+ *
+ * Layout (little endian, solo in append):
+ *   int magic, int versione, int frame per blocco, int numero colonne
+ *   per ogni colonna: byte tipo (0 double, 1 intero), short lunghezza, nome UTF-8
+ *   blocchi: int frame, int byte compressi, byte[] dati compressi (Deflater)
+ *
+ * I dati di un blocco sono per colonne (tutti i valori di una colonna di
+ * seguito) e ogni colonna è divisa in 8 piani di byte (tutti i byte meno
+ * significativi, poi i successivi...): valori vicini hanno segno, esponente
+ * e cifre alte uguali, che così finiscono vicini e si comprimono bene.
+ * Le colonne intere sono salvate come double.
+ *
+ * write() copia il frame nel blocco corrente; un thread in background
+ * comprime e scrive i blocchi pieni. Se il thread resta indietro di più di
+ * SPARE_BLOCKS blocchi i frame vengono scartati e contati, senza bloccare
+ * il thread di controllo. Riaprendo un file esistente con lo stesso schema
+ * si accodano nuovi blocchi (un eventuale blocco troncato in coda viene
+ * tagliato).
+ */
+public class TelemetryWriter implements Closeable {
+
+    static final int MAGIC = 0x314D4C54; // "TLM1"
+    static final int VERSION = 1;
+    static final byte TYPE_DOUBLE = 0;
+    static final byte TYPE_INT = 1;
+    static final int BLOCK_HEADER_BYTES = 2 * Integer.BYTES;
+    public static final int DEFAULT_BLOCK_FRAMES = 1024;
+    private static final int SPARE_BLOCKS = 3;
+
+    // Schema: nomi e tipi delle colonne, nell'ordine in cui vengono scritte
+    static final String[] COLUMNS;
+    static final byte[] TYPES;
+
+    static {
+        List<String> names = new ArrayList<>();
+        List<Byte> types = new ArrayList<>();
+        addColumn(names, types, "Time", TYPE_DOUBLE); // secondi dall'inizio della registrazione
+        for (int i = 0; i < PrimitiveSensorModel.TRACK_SENSORS; i++) {
+            addColumn(names, types, "Track" + i, TYPE_DOUBLE);
+        }
+        addColumn(names, types, "TrackPosition", TYPE_DOUBLE);
+        addColumn(names, types, "AngleToTrackAxis", TYPE_DOUBLE);
+        addColumn(names, types, "Speed", TYPE_DOUBLE);
+        addColumn(names, types, "SpeedY", TYPE_DOUBLE);
+        addColumn(names, types, "SpeedZ", TYPE_DOUBLE);
+        addColumn(names, types, "RPM", TYPE_DOUBLE);
+        addColumn(names, types, "CurrentGear", TYPE_INT);
+        addColumn(names, types, "Z", TYPE_DOUBLE);
+        addColumn(names, types, "Damage", TYPE_DOUBLE);
+        addColumn(names, types, "Fuel", TYPE_DOUBLE);
+        addColumn(names, types, "CurLapTime", TYPE_DOUBLE);
+        addColumn(names, types, "LastLapTime", TYPE_DOUBLE);
+        addColumn(names, types, "DistFromStart", TYPE_DOUBLE);
+        addColumn(names, types, "DistRaced", TYPE_DOUBLE);
+        addColumn(names, types, "RacePos", TYPE_INT);
+        for (int i = 0; i < PrimitiveSensorModel.OPPONENT_SENSORS; i++) {
+            addColumn(names, types, "Opponent" + i, TYPE_DOUBLE);
+        }
+        for (int i = 0; i < PrimitiveSensorModel.FOCUS_SENSORS; i++) {
+            addColumn(names, types, "Focus" + i, TYPE_DOUBLE);
+        }
+        for (int i = 0; i < PrimitiveSensorModel.WHEELS; i++) {
+            addColumn(names, types, "WheelSpin" + i, TYPE_DOUBLE);
+        }
+        // Action, con i nomi delle colonne dei dataset CSV
+        addColumn(names, types, "Accelerate", TYPE_DOUBLE);
+        addColumn(names, types, "Brake", TYPE_DOUBLE);
+        addColumn(names, types, "Steering", TYPE_DOUBLE);
+        addColumn(names, types, "Gear", TYPE_INT);
+        addColumn(names, types, "Clutch", TYPE_DOUBLE);
+        addColumn(names, types, "Meta", TYPE_INT);
+        addColumn(names, types, "FocusDirection", TYPE_INT);
+
+        COLUMNS = names.toArray(new String[0]);
+        TYPES = new byte[types.size()];
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPES[i] = types.get(i);
+        }
+    }
+
+    private static void addColumn(List<String> names, List<Byte> types, String name, byte type) {
+        names.add(name);
+        types.add(type);
+    }
+
+    // Blocco in costruzione: values[colonna * capacity + frame]
+    private static final class Block {
+        final double[] values;
+        int frames;
+
+        Block(int capacity) {
+            values = new double[COLUMNS.length * capacity];
+        }
+    }
+
+    private final String path;
+    private final int blockFrames;
+    private final FileChannel channel;
+    private final long start = System.nanoTime();
+    private final ArrayBlockingQueue<Block> free;
+    private final ExecutorService compressor;
+    private Block current;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    // Usati solo dal thread di compressione
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] planes;
+    private byte[] compressed;
+
+    public TelemetryWriter(String path) throws IOException {
+        this(path, DEFAULT_BLOCK_FRAMES);
+    }
+
+    public TelemetryWriter(String path, int blockFrames) throws IOException {
+        if (blockFrames < 1) {
+            throw new IllegalArgumentException("Servono almeno 1 frame per blocco: " + blockFrames);
+        }
+        this.path = path;
+        this.blockFrames = blockFrames;
+        this.planes = new byte[COLUMNS.length * blockFrames * Double.BYTES];
+        this.compressed = new byte[planes.length / 2];
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            openForAppend();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.free = new ArrayBlockingQueue<>(SPARE_BLOCKS);
+        for (int i = 0; i < SPARE_BLOCKS; i++) {
+            free.add(new Block(blockFrames));
+        }
+        this.current = new Block(blockFrames);
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "telemetry-writer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Scrive l'intestazione su un file vuoto, altrimenti la confronta con lo
+    // schema e si posiziona dopo l'ultimo blocco completo
+    private void openForAppend() throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = encodeHeader(blockFrames);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            return;
+        }
+        long end;
+        try (TelemetryReader existing = new TelemetryReader(path)) {
+            if (!Arrays.equals(existing.columnNames(), COLUMNS) || existing.blockFrameCapacity() != blockFrames) {
+                throw new IOException(path + " ha uno schema di telemetria diverso");
+            }
+            for (int c = 0; c < COLUMNS.length; c++) {
+                if (existing.isInteger(c) != (TYPES[c] == TYPE_INT)) {
+                    throw new IOException(path + " ha uno schema di telemetria diverso");
+                }
+            }
+            end = existing.endOfBlocks();
+        }
+        channel.truncate(end);
+        channel.position(end);
+    }
+
+    static ByteBuffer encodeHeader(int blockFrames) {
+        int size = 4 * Integer.BYTES;
+        for (String name : COLUMNS) {
+            size += 1 + Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(blockFrames).putInt(COLUMNS.length);
+        for (int c = 0; c < COLUMNS.length; c++) {
+            byte[] name = COLUMNS[c].getBytes(StandardCharsets.UTF_8);
+            header.put(TYPES[c]).putShort((short) name.length).put(name);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Aggiunge un frame con le letture e i comandi correnti. Non blocca e non
+     * alloca: copia i valori nel blocco corrente e, se è pieno, lo passa al
+     * thread di compressione.
+     */
+    public synchronized void write(SensorModel s, Action a) {
+        if (closed) {
+            return;
+        }
+        Block b = current;
+        if (b == null) {
+            b = current = free.poll();
+            if (b == null) {
+                dropped.incrementAndGet();
+                return;
+            }
+        }
+        double[] v = b.values;
+        int f = b.frames;
+        int col = 0;
+        v[col++ * blockFrames + f] = (System.nanoTime() - start) / 1e9;
+        col = putArray(v, col, f, s.getTrackEdgeSensors(), PrimitiveSensorModel.TRACK_SENSORS);
+        v[col++ * blockFrames + f] = s.getTrackPosition();
+        v[col++ * blockFrames + f] = s.getAngleToTrackAxis();
+        v[col++ * blockFrames + f] = s.getSpeed();
+        v[col++ * blockFrames + f] = s.getLateralSpeed();
+        v[col++ * blockFrames + f] = s.getZSpeed();
+        v[col++ * blockFrames + f] = s.getRPM();
+        v[col++ * blockFrames + f] = s.getGear();
+        v[col++ * blockFrames + f] = s.getZ();
+        v[col++ * blockFrames + f] = s.getDamage();
+        v[col++ * blockFrames + f] = s.getFuelLevel();
+        v[col++ * blockFrames + f] = s.getCurrentLapTime();
+        v[col++ * blockFrames + f] = s.getLastLapTime();
+        v[col++ * blockFrames + f] = s.getDistanceFromStartLine();
+        v[col++ * blockFrames + f] = s.getDistanceRaced();
+        v[col++ * blockFrames + f] = s.getRacePosition();
+        col = putArray(v, col, f, s.getOpponentSensors(), PrimitiveSensorModel.OPPONENT_SENSORS);
+        col = putArray(v, col, f, s.getFocusSensors(), PrimitiveSensorModel.FOCUS_SENSORS);
+        col = putArray(v, col, f, s.getWheelSpinVelocity(), PrimitiveSensorModel.WHEELS);
+        v[col++ * blockFrames + f] = a.accelerate;
+        v[col++ * blockFrames + f] = a.brake;
+        v[col++ * blockFrames + f] = a.steering;
+        v[col++ * blockFrames + f] = a.gear;
+        v[col++ * blockFrames + f] = a.clutch;
+        v[col++ * blockFrames + f] = a.restartRace ? 1 : 0;
+        v[col * blockFrames + f] = a.focus;
+
+        b.frames = f + 1;
+        if (b.frames == blockFrames) {
+            submit(b);
+            current = free.poll();
+        }
+    }
+
+    // Array di lunghezza fissa nello schema: i valori mancanti restano 0
+    private int putArray(double[] v, int col, int f, double[] values, int count) {
+        int n = values == null ? 0 : Math.min(values.length, count);
+        for (int i = 0; i < count; i++) {
+            v[(col + i) * blockFrames + f] = i < n ? values[i] : 0;
+        }
+        return col + count;
+    }
+
+    private void submit(Block b) {
+        compressor.execute(() -> {
+            try {
+                if (failure == null) {
+                    writeBlock(b);
+                    written.addAndGet(b.frames);
+                }
+            } catch (IOException e) {
+                // meglio perdere la telemetria che la guida
+                failure = e;
+                e.printStackTrace();
+            } finally {
+                b.frames = 0;
+                free.offer(b);
+            }
+        });
+    }
+
+    private void writeBlock(Block b) throws IOException {
+        int n = b.frames;
+        int len = encodePlanes(b.values, blockFrames, n, planes);
+        deflater.reset();
+        deflater.setInput(planes, 0, len);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+        ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(n).putInt(size).flip();
+        ByteBuffer body = ByteBuffer.wrap(compressed, 0, size);
+        while (header.hasRemaining() || body.hasRemaining()) {
+            channel.write(new ByteBuffer[] { header, body });
+        }
+    }
+
+    // Piani di byte colonna per colonna: per la colonna c e il byte k, i
+    // byte k dei frame 0..n-1 di seguito (k = 0 meno significativo)
+    static int encodePlanes(double[] values, int stride, int n, byte[] out) {
+        int p = 0;
+        for (int c = 0; c < COLUMNS.length; c++) {
+            int base = c * stride;
+            for (int k = 0; k < Double.BYTES; k++) {
+                int shift = 8 * k;
+                for (int f = 0; f < n; f++) {
+                    out[p++] = (byte) (Double.doubleToRawLongBits(values[base + f]) >>> shift);
+                }
+            }
+        }
+        return p;
+    }
+
+    // Frame scritti su disco finora
+    public long getWritten() {
+        return written.get();
+    }
+
+    // Frame scartati perché il thread di compressione era indietro
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Scrive il blocco incompleto, aspetta il thread di compressione, fa
+     * fsync e chiude il file. Si può chiamare da un thread diverso da quello
+     * che scrive: il lock è tenuto solo per consegnare l'ultimo blocco.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (current != null && current.frames > 0) {
+                submit(current);
+            }
+            current = null;
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deflater.end();
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        if (dropped.get() > 0) {
+            System.out.println("Telemetria " + path + ": " + dropped.get() + " frame scartati");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package scr;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metriche di latenza del ciclo del client, dalla ricezione del messaggio
+ * all'invio del comando, divise per fase.
+ *
+ * Tutte le chiamate avvengono sul thread di controllo: record() costa un
+ * System.nanoTime() del chiamante e un incremento in un istogramma già
+ * allocato. I riepiloghi (p50/p99/p99.9/max) vengono aggiunti al file ogni
+ * interval secondi e alla chiusura; dump() va chiamato subito dopo l'invio,
+ * quando il server sta ancora simulando il passo successivo.
+ */
+public class TickMetrics {
+
+    public enum Stage {
+        PARSE, // parsing del messaggio dei sensori
+        CONTROL, // Controller.control, k-NN compreso
+        KNN, // solo la predizione del classificatore (registrata dal driver)
+        ENCODE, // codifica dell'azione
+        SEND, // invio UDP
+        TICK // dalla ricezione alla fine dell'invio
+    }
+
+    // Passo di simulazione del server SCR
+    public static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final Stage[] stages = Stage.values();
+    private final LatencyHistogram[] interval = new LatencyHistogram[stages.length];
+    private final LatencyHistogram[] cumulative = new LatencyHistogram[stages.length];
+    private final String path;
+    private final long intervalNanos;
+    private final long budgetNanos;
+
+    private long timeouts;
+    private long missedTicks;
+    private long intervalTimeouts;
+    private long intervalMissed;
+    private long lastDump;
+
+    /**
+     * @param path          file su cui aggiungere i riepiloghi (null = solo console)
+     * @param intervalSeconds ogni quanti secondi scrivere un riepilogo (0 = solo alla chiusura)
+     * @param budgetNanos   durata oltre la quale un tick è considerato perso
+     */
+    public TickMetrics(String path, int intervalSeconds, long budgetNanos) {
+        for (int i = 0; i < stages.length; i++) {
+            interval[i] = new LatencyHistogram();
+            cumulative[i] = new LatencyHistogram();
+        }
+        this.path = path;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+        this.budgetNanos = budgetNanos;
+        this.lastDump = System.nanoTime();
+    }
+
+    public TickMetrics(String path, int intervalSeconds) {
+        this(path, intervalSeconds, DEFAULT_BUDGET_NANOS);
+    }
+
+    public void record(Stage stage, long nanos) {
+        interval[stage.ordinal()].record(nanos);
+    }
+
+    // Tick completo: oltre il budget il server ha già proseguito senza di noi
+    public void tick(long nanos) {
+        interval[Stage.TICK.ordinal()].record(nanos);
+        if (nanos > budgetNanos) {
+            intervalMissed++;
+        }
+    }
+
+    public void timeout() {
+        intervalTimeouts++;
+    }
+
+    // Scrive il riepilogo dell'intervallo se è passato abbastanza tempo
+    public void dump(long now) {
+        if (intervalNanos > 0 && now - lastDump >= intervalNanos) {
+            writeSummary("intervallo di " + TimeUnit.NANOSECONDS.toSeconds(now - lastDump) + " s", interval,
+                    intervalTimeouts, intervalMissed, false);
+            lastDump = now;
+            rollInterval();
+        }
+    }
+
+    // Riepilogo dell'intera esecuzione, su file e in console
+    public void close() {
+        rollInterval();
+        writeSummary("totale", cumulative, timeouts, missedTicks, true);
+    }
+
+    private void rollInterval() {
+        for (int i = 0; i < stages.length; i++) {
+            cumulative[i].add(interval[i]);
+            interval[i].reset();
+        }
+        timeouts += intervalTimeouts;
+        missedTicks += intervalMissed;
+        intervalTimeouts = 0;
+        intervalMissed = 0;
+    }
+
+    private void writeSummary(String title, LatencyHistogram[] histograms, long timeoutCount, long missedCount,
+            boolean console) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("# ").append(LocalDateTime.now()).append(" - ").append(title).append('\n');
+        sb.append(String.format(Locale.US, "%-8s %10s %10s %10s %10s %10s %10s%n",
+                "fase", "conteggio", "media_us", "p50_us", "p99_us", "p99.9_us", "max_us"));
+        for (int i = 0; i < stages.length; i++) {
+            LatencyHistogram h = histograms[i];
+            if (h.count() == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    stages[i], h.count(), h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.99) / 1e3,
+                    h.percentile(0.999) / 1e3, h.max() / 1e3));
+        }
+        sb.append(String.format(Locale.US, "timeout UDP: %d, tick oltre %.1f ms: %d%n%n",
+                timeoutCount, budgetNanos / 1e6, missedCount));
+
+        if (console) {
+            System.out.print(sb);
+        }
+        if (path != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(path, true))) {
+                out.print(sb);
+            } catch (IOException e) {
+                System.err.println("Errore nella scrittura delle metriche: " + e.getMessage());
+            }
+        }
+    }
+}
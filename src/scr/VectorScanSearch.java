@@ -0,0 +1,227 @@
+package scr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Ricerca dei k vicini a forza bruta vettorizzata con la Vector API del JDK.
+ *
+ * Con poche feature (11) una scansione lineare SIMD su dati per colonne può
+ * battere il KD-tree, il cui pruning rende poco in 11 dimensioni. Le feature
+ * sono trasposte per colonne (la colonna f occupa gli elementi
+ * [f * size, (f + 1) * size)), e ogni iterazione calcola la distanza di un
+ * blocco di punti contemporaneamente. La trasposizione usa lo storage del
+ * Dataset (double[], float[] o buffer diretto), così FLOAT e OFF_HEAP
+ * riducono lo heap anche per questo motore.
+ *
+ * Le operazioni per punto sono le stesse, nello stesso ordine, di
+ * DistanceKernel, quindi le distanze coincidono bit per bit con quelle del
+ * KDTree e i risultati sono identici.
+ *
+ * Richiede il modulo jdk.incubator.vector (--add-modules jdk.incubator.vector).
+ */
+public class VectorScanSearch implements NeighborSearch {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Stesso numero di lane di SPECIES, per caricare le colonne float
+    private static final VectorSpecies<Float> FLOAT_SPECIES = VectorSpecies.of(float.class,
+            VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    private final int dimensions;
+    private final int size;
+    private final Columns columns;
+    private final double[] weights;
+    private final DistanceKernel kernel;
+
+    public VectorScanSearch(List<Sample> points) {
+        this(points, DistanceKernel.EUCLIDEAN);
+    }
+
+    public VectorScanSearch(List<Sample> points, DistanceKernel kernel) {
+        this(Dataset.of(points), kernel);
+    }
+
+    public VectorScanSearch(Dataset data, DistanceKernel kernel) {
+        if (data.size() == 0) {
+            throw new IllegalArgumentException("Points list cannot be empty");
+        }
+        this.dimensions = data.dimensions();
+        this.size = data.size();
+        this.kernel = kernel;
+        this.weights = kernel.getWeights();
+
+        switch (data.storage()) {
+            case FLOAT:
+                columns = new FloatColumns(size * dimensions);
+                break;
+            case OFF_HEAP:
+                columns = new OffHeapColumns(size * dimensions);
+                break;
+            case DOUBLE:
+            default:
+                columns = new DoubleColumns(size * dimensions);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int d = 0; d < dimensions; d++) {
+                columns.set(d * size + i, data.feature(i, d));
+            }
+        }
+    }
+
+    // Feature per colonne nello storage del Dataset; i valori letti sono
+    // sempre double, come quelli che vede il KDTree
+    private abstract static class Columns {
+        abstract void set(int index, double value);
+
+        abstract double get(int index);
+
+        abstract DoubleVector load(int index);
+    }
+
+    private static final class DoubleColumns extends Columns {
+        private final double[] values;
+
+        DoubleColumns(int count) {
+            values = new double[count];
+        }
+
+        @Override
+        void set(int index, double value) {
+            values[index] = value;
+        }
+
+        @Override
+        double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        DoubleVector load(int index) {
+            return DoubleVector.fromArray(SPECIES, values, index);
+        }
+    }
+
+    private static final class FloatColumns extends Columns {
+        private final float[] values;
+
+        FloatColumns(int count) {
+            values = new float[count];
+        }
+
+        @Override
+        void set(int index, double value) {
+            values[index] = (float) value;
+        }
+
+        @Override
+        double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        DoubleVector load(int index) {
+            return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, values, index)
+                    .convertShape(VectorOperators.F2D, SPECIES, 0);
+        }
+    }
+
+    private static final class OffHeapColumns extends Columns {
+        private final ByteBuffer values;
+
+        OffHeapColumns(int count) {
+            if ((long) count * Double.BYTES > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Dataset troppo grande per un buffer diretto: " + count + " valori");
+            }
+            values = ByteBuffer.allocateDirect(count * Double.BYTES).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        void set(int index, double value) {
+            values.putDouble(index * Double.BYTES, value);
+        }
+
+        @Override
+        double get(int index) {
+            return values.getDouble(index * Double.BYTES);
+        }
+
+        @Override
+        DoubleVector load(int index) {
+            return DoubleVector.fromByteBuffer(SPECIES, values, index * Double.BYTES, ByteOrder.nativeOrder());
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public DistanceKernel kernel() {
+        return kernel;
+    }
+
+    @Override
+    public int kNearestNeighbors(double[] query, int k, NeighborHeap heap, int[] outIds, double[] outDists) {
+        heap.reset(k);
+
+        int lanes = SPECIES.length();
+        int upper = SPECIES.loopBound(size);
+        int i = 0;
+        for (; i < upper; i += lanes) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            for (int d = 0; d < dimensions; d++) {
+                DoubleVector diff = columns.load(d * size + i).sub(query[d]);
+                DoubleVector sq = diff.mul(diff);
+                if (weights != null) {
+                    sq = sq.mul(weights[d]);
+                }
+                acc = acc.add(sq);
+            }
+            // Solo le lane che possono entrare nello heap vanno estratte
+            VectorMask<Double> candidates = acc.compare(VectorOperators.LE, heap.worst());
+            if (candidates.anyTrue()) {
+                long bits = candidates.toLong();
+                while (bits != 0) {
+                    int lane = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    double dist = acc.lane(lane);
+                    if (dist <= heap.worst()) {
+                        heap.offer(i + lane, dist);
+                    }
+                }
+            }
+        }
+
+        // Coda scalare, con le stesse operazioni della parte vettoriale
+        for (; i < size; i++) {
+            double sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                double diff = columns.get(d * size + i) - query[d];
+                double sq = diff * diff;
+                if (weights != null) {
+                    sq = sq * weights[d];
+                }
+                sum += sq;
+            }
+            if (sum <= heap.worst()) {
+                heap.offer(i, sum);
+            }
+        }
+
+        return heap.drainSorted(outIds, outDists);
+    }
+}